@@ -1,6 +1,8 @@
 package org.apache.nifi.arango.common;
 
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.Validator;
 import org.apache.nifi.controller.ArangoDBClientService;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.processor.util.StandardValidators;
@@ -37,4 +39,30 @@ public interface ArangoClientConfiguration {
         .addValidator(StandardValidators.NON_EMPTY_EL_VALIDATOR)
         .description("An AQL query to execute.")
         .build();
+
+    PropertyDescriptor CONNECTION_PROFILE = new PropertyDescriptor.Builder()
+        .name("arango-connection-profile")
+        .displayName("Connection Profile")
+        .description("The name of a connection profile defined on the client service. Profiles let heavy reads use different " +
+                "coordinators, pool sizes and timeouts than writes and lookups. If not set, the client service's own settings are used.")
+        .required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+    AllowableValue FORMAT_DEFAULT = new AllowableValue("default", "Client Service Default",
+        "Use the protocol configured on the client service.");
+    AllowableValue FORMAT_JSON = new AllowableValue("json", "JSON",
+        "Use JSON bodies over the HTTP version configured on the client service.");
+    AllowableValue FORMAT_VPACK = new AllowableValue("vpack", "VelocyPack",
+        "Use VelocyPack bodies over the HTTP version configured on the client service.");
+    PropertyDescriptor SERIALIZATION_FORMAT = new PropertyDescriptor.Builder()
+        .name("arango-serialization-format")
+        .displayName("Serialization Format")
+        .description("Overrides the body format of the client service's protocol for this component. VelocyPack is more compact " +
+                "for large documents, JSON is cheaper to produce for small ones. Has no effect when the client service uses VST, " +
+                "which always uses VelocyPack.")
+        .required(true)
+        .allowableValues(FORMAT_DEFAULT, FORMAT_JSON, FORMAT_VPACK)
+        .defaultValue(FORMAT_DEFAULT.getValue())
+        .addValidator(Validator.VALID)
+        .build();
 }
@@ -2,6 +2,33 @@ package org.apache.nifi.controller;
 
 import com.arangodb.ArangoDB;
 
+/**
+ * Connections are built when the service is enabled and shared by every caller. They are shut down when the service is
+ * disabled, so callers must not shut them down themselves.
+ */
 public interface ArangoDBClientService extends ControllerService {
+    String DEFAULT_PROFILE = "";
+
     ArangoDB getConnection();
+
+    /**
+     * Get a connection that uses the given serialization format instead of the one configured on the service.
+     *
+     * @param format One of the serialization format values from {@link org.apache.nifi.arango.common.ArangoClientConfiguration}.
+     */
+    ArangoDB getConnection(String format);
+
+    /**
+     * Get a connection from a named connection profile. A null or empty profile name selects the service's own settings.
+     *
+     * @param profile The connection profile name.
+     * @param format One of the serialization format values from {@link org.apache.nifi.arango.common.ArangoClientConfiguration}.
+     */
+    ArangoDB getConnection(String profile, String format);
+
+    /**
+     * @param profile The connection profile name.
+     * @return Whether read queries made with this profile may be served by followers.
+     */
+    boolean isDirtyReadAllowed(String profile);
 }
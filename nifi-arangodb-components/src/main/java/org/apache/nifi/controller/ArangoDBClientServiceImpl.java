@@ -1,17 +1,22 @@
 package org.apache.nifi.controller;
 
 import com.arangodb.ArangoDB;
+import com.arangodb.Compression;
 import com.arangodb.Protocol;
 import com.arangodb.entity.LoadBalancingStrategy;
+import org.apache.nifi.annotation.behavior.DynamicProperty;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
 import org.apache.nifi.annotation.lifecycle.OnEnabled;
+import org.apache.nifi.arango.common.ArangoClientConfiguration;
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.PropertyValue;
 import org.apache.nifi.components.ValidationContext;
 import org.apache.nifi.components.ValidationResult;
 import org.apache.nifi.components.Validator;
+import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.ssl.SSLContextService;
 import org.apache.nifi.util.StringUtils;
@@ -20,34 +25,43 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Tags({"arangodb", "driver", "client"})
 @CapabilityDescription("Provides a client driver for accessing ArangoDB.")
+@DynamicProperty(name = "<profile>.<setting>", value = "The setting's value",
+        description = "Defines a named connection profile that components can select with their Connection Profile property. " +
+                "Supported settings are hosts, load.balancing.strategy, max.connections, timeout, allow.dirty.read and " +
+                "fetch.host.list. Settings that a profile does not define are taken from the service's own properties.")
 public class ArangoDBClientServiceImpl extends AbstractControllerService implements ArangoDBClientService {
+    static final Validator HOSTS_VALIDATOR = (subject, input, validationContext) -> {
+        if (StringUtils.isEmpty(input)) {
+            return new ValidationResult.Builder().subject(subject).input(input).valid(false).build();
+        }
+
+        String[] values = input.split(",[\\s]*");
+        boolean valid = true;
+        for (String value : values) {
+            String[] parts = value.split(":");
+            if (parts.length != 2) {
+                valid = false;
+                break;
+            }
+        }
+
+        return new ValidationResult.Builder().subject(subject).input(input).valid(valid).build();
+    };
+
     public static final PropertyDescriptor HOSTS = new PropertyDescriptor.Builder()
         .name("arangodb-client-service-hosts")
         .displayName("Coordinator Hosts")
         .description("A list of one or more ArangoDB coordinators. Can be a single host for a cluster. Should be a comma-separated list " +
                 "of hostnames and ports.")
         .required(true)
-        .addValidator((subject, input, validationContext) -> {
-            if (StringUtils.isEmpty(input)) {
-                return new ValidationResult.Builder().subject(subject).input(input).valid(false).build();
-            }
-
-            String[] values = input.split(",[\\s]*");
-            boolean valid = true;
-            for (String value : values) {
-                String[] parts = value.split(":");
-                if (parts.length != 2) {
-                    valid = false;
-                    break;
-                }
-            }
-
-            return new ValidationResult.Builder().subject(subject).input(input).valid(valid).build();
-        })
+        .addValidator(HOSTS_VALIDATOR)
         .build();
 
     public static final AllowableValue LOAD_BALANCE_NONE = new AllowableValue("none", "None",
@@ -70,7 +84,9 @@ public class ArangoDBClientServiceImpl extends AbstractControllerService impleme
         .name("arangodb-client-service-fetch-host-list")
         .displayName("Fetch Host List")
         .description("If enabled, this feature will cause the ArangoDB driver to query the configured coordinator(s) for all of the " +
-                "hosts in the cluster. It can be used to figure out the entire cluster when you only know a limited number of nodes in it.")
+                "hosts in the cluster. It can be used to figure out the entire cluster when you only know a limited number of nodes in it. " +
+                "Connection profiles that set their own hosts do not fetch the host list unless they set fetch.host.list to true, " +
+                "so that they stay on the coordinators they name.")
         .required(false)
         .allowableValues("true", "false")
         .defaultValue("true")
@@ -107,16 +123,54 @@ public class ArangoDBClientServiceImpl extends AbstractControllerService impleme
             "HTTP with JSON body");
     public static final AllowableValue PROTOCOL_HTTP_VPACK = new AllowableValue("PROTOCOL_HTTP_VPACK", "PROTOCOL_HTTP_VPACK",
             "HTTP with VelocyPack body");
+    public static final AllowableValue PROTOCOL_HTTP2_JSON = new AllowableValue("PROTOCOL_HTTP2_JSON", "PROTOCOL_HTTP2_JSON",
+            "HTTP/2 with JSON body");
+    public static final AllowableValue PROTOCOL_HTTP2_VPACK = new AllowableValue("PROTOCOL_HTTP2_VPACK", "PROTOCOL_HTTP2_VPACK",
+            "HTTP/2 with VelocyPack body");
     public static final PropertyDescriptor PROTOCOL = new PropertyDescriptor.Builder()
             .name("arangodb-client-service-protocol")
             .displayName("Protocol")
             .description("Set the protocol for the driver.")
             .required(false)
-            .allowableValues(PROTOCOL_VST, PROTOCOL_HTTP_JSON, PROTOCOL_HTTP_VPACK)
+            .allowableValues(PROTOCOL_VST, PROTOCOL_HTTP_JSON, PROTOCOL_HTTP_VPACK, PROTOCOL_HTTP2_JSON, PROTOCOL_HTTP2_VPACK)
             .defaultValue(PROTOCOL_VST.getValue())
             .addValidator(Validator.VALID)
             .build();
 
+    public static final AllowableValue COMPRESSION_NONE = new AllowableValue("none", "None",
+            "Do not compress requests or responses.");
+    public static final AllowableValue COMPRESSION_GZIP = new AllowableValue("gzip", "gzip",
+            "Compress requests and ask the server for gzip compressed responses.");
+    public static final AllowableValue COMPRESSION_DEFLATE = new AllowableValue("deflate", "deflate",
+            "Compress requests and ask the server for deflate compressed responses.");
+    public static final PropertyDescriptor COMPRESSION = new PropertyDescriptor.Builder()
+            .name("arangodb-client-service-compression")
+            .displayName("Compression")
+            .description("Sets the compression used for request and response bodies. Only supported by the HTTP protocols.")
+            .required(true)
+            .allowableValues(COMPRESSION_NONE, COMPRESSION_GZIP, COMPRESSION_DEFLATE)
+            .defaultValue(COMPRESSION_NONE.getValue())
+            .addValidator(Validator.VALID)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_THRESHOLD = new PropertyDescriptor.Builder()
+            .name("arangodb-client-service-compression-threshold")
+            .displayName("Compression Threshold")
+            .description("The minimum request body size in bytes before it is compressed.")
+            .required(false)
+            .defaultValue("1024")
+            .addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+            .build();
+
+    public static final PropertyDescriptor COMPRESSION_LEVEL = new PropertyDescriptor.Builder()
+            .name("arangodb-client-service-compression-level")
+            .displayName("Compression Level")
+            .description("The compression level from 1 (fastest) to 9 (smallest).")
+            .required(false)
+            .defaultValue("6")
+            .addValidator(StandardValidators.createLongValidator(1, 9, true))
+            .build();
+
     public static final PropertyDescriptor TIMEOUT = new PropertyDescriptor.Builder()
             .name("arangodb-client-service-timeout")
             .displayName("Timeout")
@@ -165,9 +219,31 @@ public class ArangoDBClientServiceImpl extends AbstractControllerService impleme
             .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
             .build();
 
+    public static final PropertyDescriptor ALLOW_DIRTY_READ = new PropertyDescriptor.Builder()
+            .name("arangodb-client-service-allow-dirty-read")
+            .displayName("Allow Dirty Read")
+            .description("If set to true, read queries may be served by followers, which can return data that is not yet " +
+                    "replicated from the leader. Only applies to components that only read.")
+            .required(true)
+            .allowableValues("true", "false")
+            .defaultValue("false")
+            .addValidator(StandardValidators.BOOLEAN_VALIDATOR)
+            .build();
+
+    static final String PROFILE_HOSTS = "hosts";
+    static final String PROFILE_LOAD_BALANCING_STRATEGY = "load.balancing.strategy";
+    static final String PROFILE_MAX_CONNECTIONS = "max.connections";
+    static final String PROFILE_TIMEOUT = "timeout";
+    static final String PROFILE_ALLOW_DIRTY_READ = "allow.dirty.read";
+    static final String PROFILE_FETCH_HOST_LIST = "fetch.host.list";
+    static final List<String> PROFILE_SETTINGS = Collections.unmodifiableList(Arrays.asList(
+        PROFILE_HOSTS, PROFILE_LOAD_BALANCING_STRATEGY, PROFILE_MAX_CONNECTIONS, PROFILE_TIMEOUT, PROFILE_ALLOW_DIRTY_READ,
+            PROFILE_FETCH_HOST_LIST
+    ));
+
     public static final List<PropertyDescriptor> PROPERTY_DESCRIPTORS = Collections.unmodifiableList(Arrays.asList(
-        HOSTS, LOAD_BALANCING_STRATEGY, FETCH_HOST_LIST, USERNAME, PASSWORD, USE_AUTHENTICATION, PROTOCOL, TIMEOUT, TTL,
-            CHUNK_SIZE, MAX_CONNECTIONS, SSL_CONTEXT, USE_SSL
+        HOSTS, LOAD_BALANCING_STRATEGY, FETCH_HOST_LIST, USERNAME, PASSWORD, USE_AUTHENTICATION, PROTOCOL, COMPRESSION,
+            COMPRESSION_THRESHOLD, COMPRESSION_LEVEL, TIMEOUT, TTL, CHUNK_SIZE, MAX_CONNECTIONS, SSL_CONTEXT, USE_SSL, ALLOW_DIRTY_READ
     ));
 
     @Override
@@ -175,6 +251,40 @@ public class ArangoDBClientServiceImpl extends AbstractControllerService impleme
         return PROPERTY_DESCRIPTORS;
     }
 
+    @Override
+    protected PropertyDescriptor getSupportedDynamicPropertyDescriptor(String propertyDescriptorName) {
+        PropertyDescriptor.Builder builder = new PropertyDescriptor.Builder()
+            .name(propertyDescriptorName)
+            .displayName(propertyDescriptorName)
+            .dynamic(true);
+        String setting = getProfileSetting(propertyDescriptorName);
+        if (setting == null) {
+            builder.addValidator((subject, input, validationContext) -> new ValidationResult.Builder().subject(subject)
+                    .input(input).valid(false).explanation("connection profile settings must be named <profile>.<setting> " +
+                            "where setting is one of " + PROFILE_SETTINGS).build());
+        } else if (setting.equals(PROFILE_HOSTS)) {
+            builder.addValidator(HOSTS_VALIDATOR);
+        } else if (setting.equals(PROFILE_LOAD_BALANCING_STRATEGY)) {
+            builder.allowableValues(LOAD_BALANCE_NONE, LOAD_BALANCE_RANDOM, LOAD_BALANCE_ROUND_ROBIN);
+        } else if (setting.equals(PROFILE_ALLOW_DIRTY_READ) || setting.equals(PROFILE_FETCH_HOST_LIST)) {
+            builder.addValidator(StandardValidators.BOOLEAN_VALIDATOR);
+        } else {
+            builder.addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR);
+        }
+
+        return builder.build();
+    }
+
+    private static String getProfileSetting(String propertyName) {
+        for (String setting : PROFILE_SETTINGS) {
+            if (propertyName.endsWith("." + setting) && propertyName.length() > setting.length() + 1) {
+                return setting;
+            }
+        }
+
+        return null;
+    }
+
     @Override
     public Collection<ValidationResult> customValidate(ValidationContext context) {
         List<ValidationResult> problems = new ArrayList<>();
@@ -193,21 +303,126 @@ public class ArangoDBClientServiceImpl extends AbstractControllerService impleme
             }
         }
 
+        boolean compressed = !context.getProperty(COMPRESSION).getValue().equals(COMPRESSION_NONE.getValue());
+        if (compressed && context.getProperty(PROTOCOL).getValue().equals(PROTOCOL_VST.getValue())) {
+            problems.add(new ValidationResult.Builder().subject(COMPRESSION.getDisplayName()).valid(false)
+                    .explanation("compression is only supported by the HTTP protocols").build());
+        }
+
         return problems;
     }
 
-    private volatile ArangoDB.Builder builder;
+    private volatile Protocol defaultProtocol;
+    private volatile Map<String, ConnectionProfile> profiles;
+
+    /*
+     * Holds one client per protocol. Each client keeps its own connection pool, so they are built once when the service is
+     * enabled and shared by every caller until it is disabled.
+     */
+    private static class ConnectionProfile {
+        final Map<Protocol, ArangoDB> connections = new EnumMap<>(Protocol.class);
+        boolean allowDirtyRead;
+    }
 
     @OnEnabled
     public void onEnabled(ConfigurationContext context) {
+        String protocol = context.getProperty(PROTOCOL).getValue();
+        if (protocol.equals(PROTOCOL_HTTP_JSON.getValue())) {
+            defaultProtocol = Protocol.HTTP_JSON;
+        } else if (protocol.equals(PROTOCOL_HTTP_VPACK.getValue())) {
+            defaultProtocol = Protocol.HTTP_VPACK;
+        } else if (protocol.equals(PROTOCOL_HTTP2_JSON.getValue())) {
+            defaultProtocol = Protocol.HTTP2_JSON;
+        } else if (protocol.equals(PROTOCOL_HTTP2_VPACK.getValue())) {
+            defaultProtocol = Protocol.HTTP2_VPACK;
+        } else {
+            defaultProtocol = Protocol.VST;
+        }
+
+        Map<String, Map<String, String>> profileSettings = new HashMap<>();
+        profileSettings.put(DEFAULT_PROFILE, Collections.emptyMap());
+        for (Map.Entry<PropertyDescriptor, String> entry : context.getProperties().entrySet()) {
+            PropertyDescriptor descriptor = entry.getKey();
+            String setting = getProfileSetting(descriptor.getName());
+            if (!descriptor.isDynamic() || setting == null || entry.getValue() == null) {
+                continue;
+            }
+            String name = descriptor.getName().substring(0, descriptor.getName().length() - setting.length() - 1);
+            profileSettings.computeIfAbsent(name, key -> new HashMap<>()).put(setting, entry.getValue());
+        }
+
+        Map<String, ConnectionProfile> _profiles = new HashMap<>();
+        try {
+            for (Map.Entry<String, Map<String, String>> entry : profileSettings.entrySet()) {
+                Map<String, String> settings = entry.getValue();
+                ConnectionProfile profile = new ConnectionProfile();
+                _profiles.put(entry.getKey(), profile);
+                for (String format : Arrays.asList(ArangoClientConfiguration.FORMAT_DEFAULT.getValue(),
+                        ArangoClientConfiguration.FORMAT_JSON.getValue(), ArangoClientConfiguration.FORMAT_VPACK.getValue())) {
+                    Protocol _protocol = getProtocol(format);
+                    if (!profile.connections.containsKey(_protocol)) {
+                        profile.connections.put(_protocol, createBuilder(context, settings, _protocol).build());
+                    }
+                }
+                profile.allowDirtyRead = Boolean.parseBoolean(getSetting(context, settings, PROFILE_ALLOW_DIRTY_READ, ALLOW_DIRTY_READ));
+            }
+        } catch (Exception ex) {
+            shutdown(_profiles);
+            throw ex;
+        }
+
+        this.profiles = _profiles;
+    }
+
+    @OnDisabled
+    public void onDisabled() {
+        Map<String, ConnectionProfile> _profiles = this.profiles;
+        this.profiles = null;
+        if (_profiles != null) {
+            shutdown(_profiles);
+        }
+    }
+
+    private void shutdown(Map<String, ConnectionProfile> _profiles) {
+        for (ConnectionProfile profile : _profiles.values()) {
+            for (ArangoDB connection : profile.connections.values()) {
+                try {
+                    connection.shutdown();
+                } catch (Exception ex) {
+                    getLogger().warn("Failed to shut down an ArangoDB connection.", ex);
+                }
+            }
+        }
+    }
+
+    /*
+     * Connection profile settings fall back to the service's own property when the profile does not define them.
+     */
+    private String getSetting(ConfigurationContext context, Map<String, String> settings, String setting, PropertyDescriptor fallback) {
+        return settings.containsKey(setting) ? settings.get(setting) : context.getProperty(fallback).getValue();
+    }
+
+    /*
+     * The driver replaces the configured hosts with every coordinator it finds when it fetches the host list. A profile that
+     * names its own hosts would lose them, so it only fetches the list when it asks for that itself.
+     */
+    private boolean isHostListAcquired(ConfigurationContext context, Map<String, String> settings) {
+        if (settings.containsKey(PROFILE_FETCH_HOST_LIST)) {
+            return Boolean.parseBoolean(settings.get(PROFILE_FETCH_HOST_LIST));
+        }
+
+        return !settings.containsKey(PROFILE_HOSTS) && context.getProperty(FETCH_HOST_LIST).asBoolean();
+    }
+
+    private ArangoDB.Builder createBuilder(ConfigurationContext context, Map<String, String> settings, Protocol protocol) {
         ArangoDB.Builder _builder = new ArangoDB.Builder();
-        String hosts = context.getProperty(HOSTS).getValue();
+        String hosts = getSetting(context, settings, PROFILE_HOSTS, HOSTS);
         String[] hostsSplit = hosts.split(",[\\s]*");
         for (String part : hostsSplit) {
             String[] split = part.split(":");
             _builder = _builder.host(split[0], Integer.valueOf(split[1]));
         }
-        String loadBalancing = context.getProperty(LOAD_BALANCING_STRATEGY).getValue();
+        String loadBalancing = getSetting(context, settings, PROFILE_LOAD_BALANCING_STRATEGY, LOAD_BALANCING_STRATEGY);
         if (loadBalancing.equals(LOAD_BALANCE_RANDOM.getValue())) {
             _builder = _builder.loadBalancingStrategy(LoadBalancingStrategy.ONE_RANDOM);
         } else if (loadBalancing.equals(LOAD_BALANCE_ROUND_ROBIN.getValue())) {
@@ -216,28 +431,35 @@ public class ArangoDBClientServiceImpl extends AbstractControllerService impleme
             _builder = _builder.loadBalancingStrategy(LoadBalancingStrategy.NONE);
         }
 
-        boolean fetchList = context.getProperty(FETCH_HOST_LIST).asBoolean();
-        _builder = _builder.acquireHostList(fetchList);
+        _builder = _builder.acquireHostList(isHostListAcquired(context, settings));
 
         if (context.getProperty(USE_AUTHENTICATION).asBoolean()) {
             _builder = _builder.user(context.getProperty(USERNAME).getValue())
                     .password(context.getProperty(PASSWORD).getValue());
         }
 
-        if (context.getProperty(PROTOCOL).isSet()) {
-            String protocol = context.getProperty(PROTOCOL).getValue();
-            if (protocol.equals(PROTOCOL_VST.getValue())) {
-                _builder = _builder.useProtocol(Protocol.VST);
-            } else if (protocol.equals(PROTOCOL_HTTP_JSON.getValue())) {
-                _builder = _builder.useProtocol(Protocol.HTTP_JSON);
-            } else if (protocol.equals(PROTOCOL_HTTP_VPACK.getValue())) {
-                _builder = _builder.useProtocol(Protocol.HTTP_VPACK);
-            }
+        _builder = _builder.protocol(protocol);
+
+        String compression = context.getProperty(COMPRESSION).getValue();
+        if (compression.equals(COMPRESSION_GZIP.getValue())) {
+            _builder = _builder.compression(Compression.GZIP);
+        } else if (compression.equals(COMPRESSION_DEFLATE.getValue())) {
+            _builder = _builder.compression(Compression.DEFLATE);
+        } else {
+            _builder = _builder.compression(Compression.NONE);
         }
 
-        if (context.getProperty(TIMEOUT).isSet()) {
-            Integer timeout = context.getProperty(TIMEOUT).asInteger();
-            _builder = _builder.timeout(timeout);
+        if (context.getProperty(COMPRESSION_THRESHOLD).isSet()) {
+            _builder = _builder.compressionThreshold(context.getProperty(COMPRESSION_THRESHOLD).asInteger());
+        }
+
+        if (context.getProperty(COMPRESSION_LEVEL).isSet()) {
+            _builder = _builder.compressionLevel(context.getProperty(COMPRESSION_LEVEL).asInteger());
+        }
+
+        String timeout = getSetting(context, settings, PROFILE_TIMEOUT, TIMEOUT);
+        if (timeout != null) {
+            _builder = _builder.timeout(Integer.valueOf(timeout));
         }
 
         if (context.getProperty(TTL).isSet()) {
@@ -247,12 +469,12 @@ public class ArangoDBClientServiceImpl extends AbstractControllerService impleme
 
         if (context.getProperty(CHUNK_SIZE).isSet()) {
             Integer chunkSize = context.getProperty(CHUNK_SIZE).asInteger();
-            _builder = _builder.chunksize(chunkSize);
+            _builder = _builder.chunkSize(chunkSize);
         }
 
-        if (context.getProperty(MAX_CONNECTIONS).isSet()) {
-            Integer maxConnections = context.getProperty(MAX_CONNECTIONS).asInteger();
-            _builder = _builder.maxConnections(maxConnections);
+        String maxConnections = getSetting(context, settings, PROFILE_MAX_CONNECTIONS, MAX_CONNECTIONS);
+        if (maxConnections != null) {
+            _builder = _builder.maxConnections(Integer.valueOf(maxConnections));
         }
 
         if (context.getProperty(USE_SSL).isSet()) {
@@ -265,11 +487,55 @@ public class ArangoDBClientServiceImpl extends AbstractControllerService impleme
             _builder = _builder.sslContext(sslContextService.createSSLContext(SSLContextService.ClientAuth.REQUIRED));
         }
 
-        this.builder = _builder;
+        return _builder;
+    }
+
+    /*
+     * VST always uses VelocyPack, so only the HTTP protocols can have their body format overridden.
+     */
+    private Protocol getProtocol(String format) {
+        boolean http2 = defaultProtocol == Protocol.HTTP2_JSON || defaultProtocol == Protocol.HTTP2_VPACK;
+        if (defaultProtocol == Protocol.VST || format == null
+                || format.equals(ArangoClientConfiguration.FORMAT_DEFAULT.getValue())) {
+            return defaultProtocol;
+        } else if (format.equals(ArangoClientConfiguration.FORMAT_JSON.getValue())) {
+            return http2 ? Protocol.HTTP2_JSON : Protocol.HTTP_JSON;
+        } else {
+            return http2 ? Protocol.HTTP2_VPACK : Protocol.HTTP_VPACK;
+        }
+    }
+
+    private ConnectionProfile getProfile(String name) {
+        Map<String, ConnectionProfile> _profiles = this.profiles;
+        if (_profiles == null) {
+            throw new ProcessException("The ArangoDB client service is not enabled.");
+        }
+
+        ConnectionProfile profile = _profiles.get(StringUtils.isEmpty(name) ? DEFAULT_PROFILE : name);
+        if (profile == null) {
+            throw new ProcessException(String.format("No connection profile named %s is defined.", name));
+        }
+
+        return profile;
     }
 
     @Override
     public ArangoDB getConnection() {
-        return this.builder.build();
+        return getConnection(DEFAULT_PROFILE, ArangoClientConfiguration.FORMAT_DEFAULT.getValue());
+    }
+
+    @Override
+    public ArangoDB getConnection(String format) {
+        return getConnection(DEFAULT_PROFILE, format);
+    }
+
+    @Override
+    public ArangoDB getConnection(String profile, String format) {
+        return getProfile(profile).connections.get(getProtocol(format));
+    }
+
+    @Override
+    public boolean isDirtyReadAllowed(String profile) {
+        return getProfile(profile).allowDirtyRead;
     }
 }
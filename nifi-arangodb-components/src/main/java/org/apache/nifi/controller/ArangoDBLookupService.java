@@ -1,28 +1,43 @@
 package org.apache.nifi.controller;
 
+import com.arangodb.ArangoCursor;
 import com.arangodb.ArangoDB;
-import com.arangodb.ArangoIterator;
+import com.arangodb.model.AqlQueryOptions;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnDisabled;
 import org.apache.nifi.annotation.lifecycle.OnEnabled;
 import org.apache.nifi.arango.common.ArangoClientConfiguration;
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.lookup.LookupFailureException;
 import org.apache.nifi.lookup.LookupService;
+import org.apache.nifi.processor.DataUnit;
+import org.apache.nifi.processor.util.StandardValidators;
 import org.apache.nifi.serialization.JsonInferenceSchemaRegistryService;
 import org.apache.nifi.serialization.record.MapRecord;
 import org.apache.nifi.serialization.record.Record;
 import org.apache.nifi.serialization.record.RecordSchema;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.nifi.schema.access.SchemaAccessUtils.INFER_SCHEMA;
 import static org.apache.nifi.schema.access.SchemaAccessUtils.SCHEMA_ACCESS_STRATEGY;
@@ -30,12 +45,82 @@ import static org.apache.nifi.schema.access.SchemaAccessUtils.SCHEMA_NAME_PROPER
 import static org.apache.nifi.schema.access.SchemaAccessUtils.SCHEMA_TEXT_PROPERTY;
 
 @Tags({ "lookup", "record", "enrichment", "arangodb" })
-@CapabilityDescription("This controller service provides a lookup service that is built around ArangoDB for enriching record sets.")
+@CapabilityDescription("This controller service provides a lookup service that is built around ArangoDB for enriching record sets. " +
+        "It can either run the query for every lookup, or load the query's results into memory when it is enabled and serve " +
+        "lookups from there, which suits small reference collections.")
 public class ArangoDBLookupService extends JsonInferenceSchemaRegistryService implements LookupService<Record>, ArangoClientConfiguration {
     public static final AllowableValue[] STRATEGIES = new AllowableValue[] {
             SCHEMA_NAME_PROPERTY, SCHEMA_TEXT_PROPERTY, INFER_SCHEMA
     };
 
+    public static final AllowableValue MODE_QUERY = new AllowableValue("query", "Query Per Lookup",
+            "Run the query for every lookup, with the lookup coordinates as bind variables.");
+    public static final AllowableValue MODE_CACHE = new AllowableValue("cache", "Cached",
+            "Run the query when the service is enabled and index every result by the cache key fields. Lookups are served " +
+            "from memory without contacting ArangoDB. The _id and _rev system fields are dropped from cached documents unless " +
+            "they are key or watermark fields; to keep the cache small, have the query return only the fields lookups need, " +
+            "for example RETURN KEEP(doc, 'user', 'region', 'updated').");
+    public static final PropertyDescriptor LOOKUP_MODE = new PropertyDescriptor.Builder()
+        .name("arango-lookup-mode")
+        .displayName("Lookup Mode")
+        .description("Controls whether lookups query ArangoDB directly or are served from an in-memory copy of the query results.")
+        .required(true)
+        .allowableValues(MODE_QUERY, MODE_CACHE)
+        .defaultValue(MODE_QUERY.getValue())
+        .addValidator(Validator.VALID)
+        .build();
+
+    public static final PropertyDescriptor CACHE_KEY_FIELDS = new PropertyDescriptor.Builder()
+        .name("arango-lookup-cache-key-fields")
+        .displayName("Cache Key Fields")
+        .description("A comma-separated list of document fields that make up the cache key. Lookups must supply a coordinate " +
+                "with the same name for each of them. Required when the lookup mode is cached.")
+        .required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor WATERMARK_FIELD = new PropertyDescriptor.Builder()
+        .name("arango-lookup-cache-watermark-field")
+        .displayName("Watermark Field")
+        .description("A document field that increases whenever a document changes, such as an update timestamp. When set, the " +
+                "highest value seen is passed to the query as the @watermark bind variable so that refreshes only fetch changed " +
+                "documents, for example FILTER doc.updated >= @watermark. Use >= rather than >, otherwise a document written " +
+                "with the same value as the watermark after the previous refresh is never picked up; re-reading the documents " +
+                "at the watermark is harmless because they simply replace themselves. The first load binds it to null. Deleted " +
+                "documents are not removed by incremental refreshes. When not set, every refresh reloads the full result.")
+        .required(false)
+        .addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor REFRESH_INTERVAL = new PropertyDescriptor.Builder()
+        .name("arango-lookup-cache-refresh-interval")
+        .displayName("Refresh Interval")
+        .description("How often the cached results are refreshed. If not set, the results are only loaded when the service is enabled.")
+        .required(false)
+        .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor MAX_CACHE_ENTRIES = new PropertyDescriptor.Builder()
+        .name("arango-lookup-cache-max-entries")
+        .displayName("Max Cache Entries")
+        .description("The maximum number of documents to hold in memory. A load or refresh that would go over this limit fails " +
+                "and the previous contents are kept.")
+        .required(true)
+        .defaultValue("500000")
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor MAX_CACHE_SIZE = new PropertyDescriptor.Builder()
+        .name("arango-lookup-cache-max-size")
+        .displayName("Max Cache Size")
+        .description("The maximum estimated heap size of the cached documents. The estimate counts field names, values and map " +
+                "overhead, and it is logged after every load and refresh. A load or refresh that would go over this limit fails " +
+                "and the previous contents are kept.")
+        .required(true)
+        .defaultValue("256 MB")
+        .addValidator(StandardValidators.DATA_SIZE_VALIDATOR)
+        .build();
+
     @Override
     public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
         return Collections.unmodifiableList(Arrays.asList(
@@ -48,6 +133,14 @@ public class ArangoDBLookupService extends JsonInferenceSchemaRegistryService im
                 .fromPropertyDescriptor(QUERY)
                 .expressionLanguageSupported(ExpressionLanguageScope.VARIABLE_REGISTRY)
                 .build(),
+            CONNECTION_PROFILE,
+            SERIALIZATION_FORMAT,
+            LOOKUP_MODE,
+            CACHE_KEY_FIELDS,
+            WATERMARK_FIELD,
+            REFRESH_INTERVAL,
+            MAX_CACHE_ENTRIES,
+            MAX_CACHE_SIZE,
             new PropertyDescriptor.Builder()
                 .fromPropertyDescriptor(SCHEMA_ACCESS_STRATEGY)
                 .allowableValues(STRATEGIES)
@@ -56,16 +149,223 @@ public class ArangoDBLookupService extends JsonInferenceSchemaRegistryService im
         ));
     }
 
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext context) {
+        List<ValidationResult> problems = new ArrayList<>(super.customValidate(context));
+        boolean cached = context.getProperty(LOOKUP_MODE).getValue().equals(MODE_CACHE.getValue());
+        if (cached && !context.getProperty(CACHE_KEY_FIELDS).isSet()) {
+            problems.add(new ValidationResult.Builder().subject(CACHE_KEY_FIELDS.getDisplayName()).valid(false)
+                    .explanation("cache key fields are required when the lookup mode is cached").build());
+        }
+
+        return problems;
+    }
+
     private volatile ArangoDBClientService clientService;
     private volatile String databaseName;
     private volatile String query;
+    private volatile String serializationFormat;
+    private volatile String connectionProfile;
+    private volatile boolean cached;
+    private volatile List<String> keyFields;
+    private volatile String watermarkField;
+    private volatile int maxCacheEntries;
+    private volatile long maxCacheBytes;
+    private volatile CacheIndex index;
+    private volatile ScheduledExecutorService refreshExecutor;
+
+    /*
+     * Immutable once published; refreshes build a new instance and swap the reference so readers never wait.
+     */
+    private static class CacheIndex {
+        final Map<List<String>, Map<String, Object>> documents;
+        final Object watermark;
+        final long estimatedBytes;
+
+        CacheIndex(Map<List<String>, Map<String, Object>> documents, Object watermark, long estimatedBytes) {
+            this.documents = documents;
+            this.watermark = watermark;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+
+    static final long ENTRY_OVERHEAD = 48;
+    static final List<String> DROPPED_SYSTEM_FIELDS = Collections.unmodifiableList(Arrays.asList("_id", "_rev"));
+    static final long REFRESH_SHUTDOWN_TIMEOUT_SECONDS = 30;
 
     @OnEnabled
     public void onEnabled(ConfigurationContext context) {
         clientService = context.getProperty(CLIENT_SERVICE).asControllerService(ArangoDBClientService.class);
         databaseName = context.getProperty(DATABASE_NAME).evaluateAttributeExpressions().getValue();
         query = context.getProperty(QUERY).evaluateAttributeExpressions().getValue();
+        serializationFormat = context.getProperty(SERIALIZATION_FORMAT).getValue();
+        connectionProfile = context.getProperty(CONNECTION_PROFILE).getValue();
         super.onEnabled(context);
+
+        cached = context.getProperty(LOOKUP_MODE).getValue().equals(MODE_CACHE.getValue());
+        if (cached) {
+            keyFields = Collections.unmodifiableList(Arrays.asList(context.getProperty(CACHE_KEY_FIELDS).getValue().split(",[\\s]*")));
+            watermarkField = context.getProperty(WATERMARK_FIELD).getValue();
+            maxCacheEntries = context.getProperty(MAX_CACHE_ENTRIES).asInteger();
+            maxCacheBytes = context.getProperty(MAX_CACHE_SIZE).asDataSize(DataUnit.B).longValue();
+            index = null;
+            refresh();
+
+            if (context.getProperty(REFRESH_INTERVAL).isSet()) {
+                long interval = context.getProperty(REFRESH_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS);
+                refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, String.format("ArangoDBLookupService[id=%s] cache refresh", getIdentifier()));
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                refreshExecutor.scheduleWithFixedDelay(() -> {
+                    try {
+                        refresh();
+                    } catch (Exception ex) {
+                        getLogger().error("Failed to refresh the lookup cache; keeping the previous contents.", ex);
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /*
+     * Waits for a refresh that is already running so that it cannot publish a new index after the cache has been cleared.
+     */
+    @OnDisabled
+    public void onDisabled() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+            try {
+                if (!refreshExecutor.awaitTermination(REFRESH_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    getLogger().warn("The lookup cache refresh did not stop within {} seconds.", new Object[] { REFRESH_SHUTDOWN_TIMEOUT_SECONDS });
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            refreshExecutor = null;
+        }
+        index = null;
+    }
+
+    private void refresh() {
+        CacheIndex current = index;
+        boolean incremental = current != null && watermarkField != null;
+        Map<List<String>, Map<String, Object>> documents = incremental ? new HashMap<>(current.documents) : new HashMap<>();
+        Object watermark = incremental ? current.watermark : null;
+        long estimatedBytes = incremental ? current.estimatedBytes : 0;
+        int changed = 0;
+
+        Map<String, Object> params = new HashMap<>();
+        if (watermarkField != null) {
+            params.put("watermark", watermark);
+        }
+
+        ArangoDB connection = clientService.getConnection(connectionProfile, serializationFormat);
+        AqlQueryOptions options = new AqlQueryOptions().allowDirtyRead(clientService.isDirtyReadAllowed(connectionProfile));
+        try (ArangoCursor<Object> cursor = connection.db(databaseName).query(query, Object.class, params, options)) {
+            while (cursor.hasNext()) {
+                Object next = cursor.next();
+                if (!(next instanceof Map)) {
+                    continue;
+                }
+                Map<String, Object> doc = (Map<String, Object>) next;
+                for (String field : DROPPED_SYSTEM_FIELDS) {
+                    if (!keyFields.contains(field) && !field.equals(watermarkField)) {
+                        doc.remove(field);
+                    }
+                }
+                List<String> key = getKey(doc);
+                Map<String, Object> previous = documents.put(key, doc);
+                if (previous == null) {
+                    estimatedBytes += ENTRY_OVERHEAD + estimateSize(key);
+                } else {
+                    estimatedBytes -= estimateSize(previous);
+                }
+                estimatedBytes += estimateSize(doc);
+                if (documents.size() > maxCacheEntries) {
+                    throw new IllegalStateException(String.format("The lookup cache would exceed the maximum of %d entries.", maxCacheEntries));
+                }
+                if (estimatedBytes > maxCacheBytes) {
+                    throw new IllegalStateException(String.format("The lookup cache would exceed the maximum size of %d bytes.", maxCacheBytes));
+                }
+                if (watermarkField != null) {
+                    watermark = max(watermark, doc.get(watermarkField));
+                }
+                changed++;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        index = new CacheIndex(documents, watermark, estimatedBytes);
+        getLogger().info("{} lookup cache with {} changed documents; it now holds {} documents in about {} bytes.",
+                new Object[] { incremental ? "Refreshed" : "Loaded", changed, documents.size(), estimatedBytes });
+    }
+
+    private List<String> getKey(Map<String, ?> values) {
+        List<String> key = new ArrayList<>(keyFields.size());
+        for (String field : keyFields) {
+            Object value = values.get(field);
+            key.add(value != null ? value.toString() : null);
+        }
+
+        return key;
+    }
+
+    private static Object max(Object current, Object candidate) {
+        if (candidate == null) {
+            return current;
+        } else if (current == null) {
+            return candidate;
+        } else if (current instanceof Number && candidate instanceof Number) {
+            return ((Number) candidate).doubleValue() > ((Number) current).doubleValue() ? candidate : current;
+        } else {
+            return candidate.toString().compareTo(current.toString()) > 0 ? candidate : current;
+        }
+    }
+
+    /*
+     * A rough estimate of the heap a value takes on a 64-bit JVM: object headers, map and list entries, and two bytes per
+     * string character. It is only meant to make the size of the cache visible and to bound it.
+     */
+    @SuppressWarnings("unchecked")
+    static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        } else if (value instanceof Map) {
+            long size = ENTRY_OVERHEAD;
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+                size += ENTRY_OVERHEAD + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            long size = 40;
+            for (Object element : (Collection<Object>) value) {
+                size += 8 + estimateSize(element);
+            }
+            return size;
+        }
+
+        return 24;
+    }
+
+    /**
+     * @return The estimated heap size in bytes of the documents held in memory when the lookup mode is cached, otherwise zero.
+     */
+    public long getEstimatedCacheBytes() {
+        CacheIndex current = index;
+        return current != null ? current.estimatedBytes : 0;
+    }
+
+    /**
+     * @return The number of documents held in memory when the lookup mode is cached, otherwise zero.
+     */
+    public int getCacheSize() {
+        CacheIndex current = index;
+        return current != null ? current.documents.size() : 0;
     }
 
     @Override
@@ -75,15 +375,20 @@ public class ArangoDBLookupService extends JsonInferenceSchemaRegistryService im
 
     @Override
     public Optional<Record> lookup(Map<String, Object> coordinates, Map<String, String> context) throws LookupFailureException {
-        ArangoDB connection = clientService.getConnection();
-        try {
-            Map<String, Object> params = new HashMap<>();
-            params.putAll(coordinates);
-            params.putAll(context);
-            ArangoIterator<Object> iterator = connection.db(databaseName).query(query, params, Object.class).iterator();
+        if (cached) {
+            Map<String, Object> doc = index.documents.get(getKey(coordinates));
+            return doc != null ? Optional.<Record>of(new MapRecord(loadSchema(context, doc), new HashMap<>(doc))) : Optional.<Record>empty();
+        }
+
+        Map<String, Object> params = new HashMap<>();
+        params.putAll(coordinates);
+        params.putAll(context);
+        AqlQueryOptions options = new AqlQueryOptions().allowDirtyRead(clientService.isDirtyReadAllowed(connectionProfile));
+        ArangoDB connection = clientService.getConnection(connectionProfile, serializationFormat);
+        try (ArangoCursor<Object> cursor = connection.db(databaseName).query(query, Object.class, params, options)) {
             Record record = null;
-            if (iterator.hasNext()) {
-                Object next = iterator.next();
+            if (cursor.hasNext()) {
+                Object next = cursor.next();
                 if (next instanceof Map) {
                     Map<String, Object> doc = (Map<String, Object>)next;
                     RecordSchema schema = loadSchema(context, doc);
@@ -95,8 +400,6 @@ public class ArangoDBLookupService extends JsonInferenceSchemaRegistryService im
         } catch (Exception ex) {
             getLogger().error("", ex);
             throw new LookupFailureException(ex);
-        } finally {
-            connection.shutdown();
         }
     }
 
@@ -115,6 +418,6 @@ public class ArangoDBLookupService extends JsonInferenceSchemaRegistryService im
 
     @Override
     public Set<String> getRequiredKeys() {
-        return Collections.emptySet();
+        return cached ? Collections.unmodifiableSet(new HashSet<>(keyFields)) : Collections.<String>emptySet();
     }
 }
@@ -1,5 +1,6 @@
 package org.apache.nifi.processor;
 
+import com.arangodb.ArangoDB;
 import org.apache.nifi.arango.common.ArangoClientConfiguration;
 import org.apache.nifi.controller.ArangoDBClientService;
 
@@ -18,7 +19,15 @@ public abstract class AbstractArangoDBProcessor extends AbstractProcessor implem
         .build();
 
     protected volatile ArangoDBClientService arangoDBClientService;
+    protected volatile String serializationFormat;
+    protected volatile String connectionProfile;
     public void onScheduled(ProcessContext context) {
         arangoDBClientService = context.getProperty(CLIENT_SERVICE).asControllerService(ArangoDBClientService.class);
+        serializationFormat = context.getProperty(SERIALIZATION_FORMAT).getValue();
+        connectionProfile = context.getProperty(CONNECTION_PROFILE).getValue();
+    }
+
+    protected ArangoDB getConnection() {
+        return arangoDBClientService.getConnection(connectionProfile, serializationFormat);
     }
 }
@@ -0,0 +1,285 @@
+package org.apache.nifi.processor;
+
+import com.arangodb.ArangoCollection;
+import com.arangodb.ArangoCursor;
+import com.arangodb.ArangoDB;
+import com.arangodb.entity.DocumentDeleteEntity;
+import com.arangodb.entity.ErrorEntity;
+import com.arangodb.entity.MultiDocumentEntity;
+import com.arangodb.model.AqlQueryOptions;
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
+import org.apache.nifi.expression.ExpressionLanguageScope;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.record.path.FieldValue;
+import org.apache.nifi.record.path.RecordPath;
+import org.apache.nifi.record.path.util.RecordPathCache;
+import org.apache.nifi.serialization.RecordReader;
+import org.apache.nifi.serialization.RecordReaderFactory;
+import org.apache.nifi.serialization.record.Record;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@InputRequirement(InputRequirement.Requirement.INPUT_ALLOWED)
+@Tags({ "delete", "purge", "ttl", "arangodb" })
+@CapabilityDescription("Deletes documents from a collection in bounded batches. The keys come either from the records in the " +
+        "input flowfile or from a query that returns keys. Each batch is a separate request, so a large purge never runs as one " +
+        "huge transaction, and an optional rate limit keeps it from crowding out other traffic. Keys that no longer exist are " +
+        "ignored. The number of deleted documents is reported in the \"" + DeleteArangoDB.COUNTER_NAME + "\" counter as the " +
+        "purge progresses.")
+public class DeleteArangoDB extends AbstractArangoDBProcessor {
+    public static final AllowableValue KEYS_FROM_RECORDS = new AllowableValue("records", "Records",
+            "Read the keys from the records in the input flowfile. The processor will not start without an incoming connection.");
+    public static final AllowableValue KEYS_FROM_QUERY = new AllowableValue("query", "Query",
+            "Run a query that returns either document keys or documents with a _key field. Without an incoming connection the " +
+            "query runs on the processor's schedule, and the processor yields when a run deletes nothing.");
+    public static final PropertyDescriptor KEY_SOURCE = new PropertyDescriptor.Builder()
+        .name("delete-arango-key-source")
+        .displayName("Key Source")
+        .description("Where the keys of the documents to delete come from.")
+        .required(true)
+        .allowableValues(KEYS_FROM_RECORDS, KEYS_FROM_QUERY)
+        .defaultValue(KEYS_FROM_RECORDS.getValue())
+        .addValidator(Validator.VALID)
+        .build();
+    public static final PropertyDescriptor RECORD_READER = new PropertyDescriptor.Builder()
+        .name("delete-arango-record-reader")
+        .displayName("Record Reader")
+        .description("The record reader to use for reading keys from a flowfile. Required when the key source is records.")
+        .identifiesControllerService(RecordReaderFactory.class)
+        .required(false)
+        .build();
+    public static final PropertyDescriptor KEY_RECORD_PATH = new PropertyDescriptor.Builder()
+        .name("delete-arango-key-path")
+        .displayName("Key Record Path")
+        .description("The record path where the document key is stored. Required when the key source is records.")
+        .required(false)
+        .addValidator(StandardValidators.NON_EMPTY_EL_VALIDATOR)
+        .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
+        .build();
+    public static final PropertyDescriptor KEY_QUERY = new PropertyDescriptor.Builder()
+        .fromPropertyDescriptor(QUERY)
+        .description("An AQL query that returns the keys to delete, for example FOR doc IN sessions FILTER doc.expires < DATE_NOW() " +
+                "RETURN doc._key. It is read with a streaming cursor. Required when the key source is query.")
+        .required(false)
+        .build();
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+        .name("delete-arango-batch-size")
+        .displayName("Batch Size")
+        .description("The number of documents to delete per request.")
+        .required(true)
+        .defaultValue("1000")
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+    public static final PropertyDescriptor MAX_BATCHES_PER_SECOND = new PropertyDescriptor.Builder()
+        .name("delete-arango-max-batches-per-second")
+        .displayName("Max Batches Per Second")
+        .description("If set, the processor waits between batches so that no more than this many delete requests are sent per second.")
+        .required(false)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final List<PropertyDescriptor> DESCRIPTORS = Collections.unmodifiableList(Arrays.asList(
+        CLIENT_SERVICE, DATABASE_NAME, COLLECTION_NAME, KEY_SOURCE, RECORD_READER, KEY_RECORD_PATH, KEY_QUERY, BATCH_SIZE,
+            MAX_BATCHES_PER_SECOND, CONNECTION_PROFILE, SERIALIZATION_FORMAT
+    ));
+
+    public static final Set<Relationship> RELATIONSHIPS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+        REL_SUCCESS, REL_FAILURE
+    )));
+
+    public static final String COUNTER_NAME = "Documents Deleted";
+    public static final String DELETED_COUNT_ATTRIBUTE = "arangodb.deleted.count";
+
+    static final int DOCUMENT_NOT_FOUND = 1202;
+
+    @Override
+    public Set<Relationship> getRelationships() {
+        return RELATIONSHIPS;
+    }
+
+    @Override
+    public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
+        return DESCRIPTORS;
+    }
+
+    @Override
+    protected Collection<ValidationResult> customValidate(ValidationContext context) {
+        List<ValidationResult> problems = new ArrayList<>();
+        if (context.getProperty(KEY_SOURCE).getValue().equals(KEYS_FROM_RECORDS.getValue())) {
+            for (PropertyDescriptor descriptor : Arrays.asList(RECORD_READER, KEY_RECORD_PATH)) {
+                if (!context.getProperty(descriptor).isSet()) {
+                    problems.add(new ValidationResult.Builder().subject(descriptor.getDisplayName()).valid(false)
+                            .explanation("required when the key source is records").build());
+                }
+            }
+        } else if (!context.getProperty(KEY_QUERY).isSet()) {
+            problems.add(new ValidationResult.Builder().subject(KEY_QUERY.getDisplayName()).valid(false)
+                    .explanation("required when the key source is query").build());
+        }
+
+        return problems;
+    }
+
+    private volatile boolean keysFromRecords;
+    private volatile RecordReaderFactory readerFactory;
+    private volatile RecordPathCache recordPathCache;
+    private volatile int batchSize;
+    private volatile long minBatchInterval;
+
+    @OnScheduled
+    public void onScheduled(ProcessContext context) {
+        super.onScheduled(context);
+        keysFromRecords = context.getProperty(KEY_SOURCE).getValue().equals(KEYS_FROM_RECORDS.getValue());
+        if (keysFromRecords) {
+            if (!context.hasIncomingConnection()) {
+                throw new ProcessException("The key source is records, which needs an incoming connection to read them from.");
+            }
+            readerFactory = context.getProperty(RECORD_READER).asControllerService(RecordReaderFactory.class);
+            recordPathCache = new RecordPathCache(25);
+        }
+        batchSize = context.getProperty(BATCH_SIZE).asInteger();
+        minBatchInterval = context.getProperty(MAX_BATCHES_PER_SECOND).isSet()
+                ? TimeUnit.SECONDS.toNanos(1) / context.getProperty(MAX_BATCHES_PER_SECOND).asInteger() : 0L;
+    }
+
+    /*
+     * Sends batches of keys, waiting between them when a rate limit is set, and keeps track of how many documents were deleted.
+     * Times are kept in nanoseconds so that rates above 1000 batches per second still space the batches out.
+     */
+    private class BatchDeleter {
+        final ArangoCollection collection;
+        final ProcessSession session;
+        long lastBatch;
+        long deleted;
+
+        BatchDeleter(ArangoCollection collection, ProcessSession session) {
+            this.collection = collection;
+            this.session = session;
+            this.lastBatch = System.nanoTime() - minBatchInterval;
+        }
+
+        void delete(List<String> keys) {
+            long wait = lastBatch + minBatchInterval - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ProcessException("Interrupted while waiting to send the next batch.", ex);
+                }
+            }
+
+            lastBatch = System.nanoTime();
+            MultiDocumentEntity<DocumentDeleteEntity<Void>> result = collection.deleteDocuments(keys);
+            for (ErrorEntity error : result.getErrors()) {
+                if (error.getErrorNum() != DOCUMENT_NOT_FOUND) {
+                    throw new ProcessException(String.format("Failed to delete document: %s", error.getErrorMessage()));
+                }
+            }
+            deleted += result.getDocuments().size();
+            session.adjustCounter(COUNTER_NAME, result.getDocuments().size(), true);
+        }
+    }
+
+    private String getKey(Record record, RecordPath keyPath) {
+        Optional<FieldValue> value = keyPath.evaluate(record).getSelectedFields().findFirst();
+        if (!value.isPresent() || value.get().getValue() == null) {
+            throw new ProcessException("No record value for key field.");
+        }
+
+        return value.get().getValue().toString();
+    }
+
+    private String getKey(Object result) {
+        Object key = result instanceof Map ? ((Map<?, ?>) result).get("_key") : result;
+        if (key == null) {
+            throw new ProcessException("The query returned a result without a document key.");
+        }
+
+        return key.toString();
+    }
+
+    @Override
+    public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
+        FlowFile flowFile = session.get();
+        if (flowFile == null && (keysFromRecords || context.hasIncomingConnection())) {
+            return;
+        }
+
+        BatchDeleter deleter = null;
+        try {
+            ArangoDB db = getConnection();
+            String dbName = context.getProperty(DATABASE_NAME).evaluateAttributeExpressions(flowFile).getValue();
+            String colName = context.getProperty(COLLECTION_NAME).evaluateAttributeExpressions(flowFile).getValue();
+            deleter = new BatchDeleter(db.db(dbName).collection(colName), session);
+            List<String> keys = new ArrayList<>(batchSize);
+
+            if (keysFromRecords) {
+                String recordPath = context.getProperty(KEY_RECORD_PATH).evaluateAttributeExpressions(flowFile).getValue();
+                RecordPath keyPath = recordPathCache.getCompiled(recordPath);
+                try (InputStream is = session.read(flowFile);
+                     RecordReader reader = readerFactory.createRecordReader(flowFile, is, getLogger())) {
+                    Record record;
+                    while ((record = reader.nextRecord()) != null) {
+                        keys.add(getKey(record, keyPath));
+                        if (keys.size() == batchSize) {
+                            deleter.delete(keys);
+                            keys = new ArrayList<>(batchSize);
+                        }
+                    }
+                }
+            } else {
+                String query = context.getProperty(KEY_QUERY).evaluateAttributeExpressions(flowFile).getValue();
+                AqlQueryOptions options = new AqlQueryOptions().stream(true).batchSize(batchSize);
+                try (ArangoCursor<Object> cursor = db.db(dbName).query(query, Object.class, options)) {
+                    while (cursor.hasNext()) {
+                        keys.add(getKey(cursor.next()));
+                        if (keys.size() == batchSize) {
+                            deleter.delete(keys);
+                            keys = new ArrayList<>(batchSize);
+                        }
+                    }
+                }
+            }
+
+            if (!keys.isEmpty()) {
+                deleter.delete(keys);
+            }
+
+            getLogger().debug("Deleted {} documents from {}.", new Object[] { deleter.deleted, colName });
+            if (flowFile != null) {
+                flowFile = session.putAttribute(flowFile, DELETED_COUNT_ATTRIBUTE, String.valueOf(deleter.deleted));
+                session.transfer(flowFile, REL_SUCCESS);
+            } else if (deleter.deleted == 0) {
+                context.yield();
+            }
+        } catch (Exception ex) {
+            getLogger().error("Failed deleting documents after {} were deleted.", new Object[] { deleter != null ? deleter.deleted : 0 }, ex);
+            if (flowFile != null) {
+                session.transfer(flowFile, REL_FAILURE);
+            } else {
+                context.yield();
+            }
+        }
+    }
+}
@@ -3,9 +3,13 @@ package org.apache.nifi.processor;
 import com.arangodb.ArangoCollection;
 import com.arangodb.ArangoDB;
 import com.arangodb.entity.BaseDocument;
+import com.arangodb.entity.DocumentCreateEntity;
+import com.arangodb.entity.ErrorEntity;
+import com.arangodb.entity.MultiDocumentEntity;
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
@@ -22,13 +26,33 @@ import org.apache.nifi.serialization.record.RecordFieldType;
 import org.apache.nifi.serialization.record.util.DataTypeUtils;
 
 import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Time;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @InputRequirement(InputRequirement.Requirement.INPUT_REQUIRED)
 @Tags({ "record", "put", "arango" })
@@ -49,8 +73,29 @@ public class PutArangoDBRecord extends AbstractArangoDBProcessor {
         .expressionLanguageSupported(ExpressionLanguageScope.FLOWFILE_ATTRIBUTES)
         .build();
 
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+        .name("put-arango-record-batch-size")
+        .displayName("Batch Size")
+        .description("The number of records that are converted together and inserted with a single request.")
+        .required(true)
+        .defaultValue("100")
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+    public static final PropertyDescriptor CONVERSION_THREADS = new PropertyDescriptor.Builder()
+        .name("put-arango-record-conversion-threads")
+        .displayName("Conversion Threads")
+        .description("The number of threads used to convert records to documents. The threads are shared by all concurrent " +
+                "tasks of this processor. With more than one thread, each task also hands its batches to a sender thread that " +
+                "inserts them one at a time in the order they were read, so reading, converting and sending overlap. A value of " +
+                "1 reads, converts and sends on the task's own thread.")
+        .required(true)
+        .defaultValue("1")
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
     public static final List<PropertyDescriptor> DESCRIPTORS = Collections.unmodifiableList(Arrays.asList(
-        CLIENT_SERVICE, RECORD_READER, KEY_RECORD_PATH, DATABASE_NAME, COLLECTION_NAME
+        CLIENT_SERVICE, RECORD_READER, KEY_RECORD_PATH, DATABASE_NAME, COLLECTION_NAME, BATCH_SIZE, CONVERSION_THREADS,
+            CONNECTION_PROFILE, SERIALIZATION_FORMAT
     ));
 
     public static final Set<Relationship> RELATIONSHIPS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
@@ -67,14 +112,54 @@ public class PutArangoDBRecord extends AbstractArangoDBProcessor {
         return DESCRIPTORS;
     }
 
+    static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            .withZone(ZoneOffset.UTC);
+    static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
     private volatile RecordReaderFactory readerFactory;
     private volatile RecordPathCache recordPathCache;
+    private volatile int batchSize;
+    private volatile int maxInFlight;
+    private volatile ExecutorService conversionPool;
+    private volatile ExecutorService senderPool;
+
+    static final int REPORTED_ERRORS = 3;
 
     @OnScheduled
     public void onScheduled(ProcessContext context) {
         super.onScheduled(context);
         readerFactory = context.getProperty(RECORD_READER).asControllerService(RecordReaderFactory.class);
         recordPathCache = new RecordPathCache(25);
+        batchSize = context.getProperty(BATCH_SIZE).asInteger();
+
+        int threads = context.getProperty(CONVERSION_THREADS).asInteger();
+        if (threads > 1) {
+            conversionPool = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, String.format("PutArangoDBRecord[id=%s] conversion", getIdentifier()));
+                thread.setDaemon(true);
+                return thread;
+            });
+            senderPool = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, String.format("PutArangoDBRecord[id=%s] sender", getIdentifier()));
+                thread.setDaemon(true);
+                return thread;
+            });
+            maxInFlight = threads * 2;
+        } else {
+            maxInFlight = 1;
+        }
+    }
+
+    @OnStopped
+    public void onStopped() {
+        if (conversionPool != null) {
+            conversionPool.shutdownNow();
+            conversionPool = null;
+        }
+        if (senderPool != null) {
+            senderPool.shutdownNow();
+            senderPool = null;
+        }
     }
 
     private String getKey(Record record, RecordPath keyPath) {
@@ -91,6 +176,162 @@ public class PutArangoDBRecord extends AbstractArangoDBProcessor {
         }
     }
 
+    private List<BaseDocument> toDocuments(List<Record> records, RecordPath keyPath) {
+        List<BaseDocument> documents = new ArrayList<>(records.size());
+        for (Record record : records) {
+            String key = getKey(record, keyPath);
+            Map<String, Object> contentMap = (Map<String, Object>) toStorable(DataTypeUtils
+                    .convertRecordFieldtoObject(record, RecordFieldType.RECORD.getRecordDataType(record.getSchema())));
+            BaseDocument document = new BaseDocument();
+            document.setKey(key);
+            document.setProperties(contentMap);
+            documents.add(document);
+        }
+
+        return documents;
+    }
+
+    /*
+     * Driver 7 serializes documents with Jackson, which writes dates as epoch milliseconds, decimals as doubles and byte arrays
+     * as lists of numbers. Those are converted to strings here so that they are stored the same way with every protocol and
+     * without losing precision.
+     */
+    @SuppressWarnings("unchecked")
+    static Object toStorable(Object value) {
+        if (value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate().toString();
+        } else if (value instanceof Time) {
+            return TIME_FORMAT.format(((Time) value).toLocalTime());
+        } else if (value instanceof Date) {
+            return TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(((Date) value).getTime()));
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            return value.toString();
+        } else if (value instanceof byte[]) {
+            return Base64.getEncoder().encodeToString((byte[]) value);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            if (array.length > 0 && Arrays.stream(array).allMatch(Byte.class::isInstance)) {
+                byte[] bytes = new byte[array.length];
+                for (int i = 0; i < array.length; i++) {
+                    bytes[i] = (Byte) array[i];
+                }
+                return Base64.getEncoder().encodeToString(bytes);
+            }
+            List<Object> list = new ArrayList<>(array.length);
+            for (Object element : array) {
+                list.add(toStorable(element));
+            }
+            return list;
+        } else if (value instanceof Map) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                map.put(entry.getKey(), toStorable(entry.getValue()));
+            }
+            return map;
+        }
+
+        return value;
+    }
+
+    private Future<List<BaseDocument>> convert(List<Record> records, RecordPath keyPath) {
+        ExecutorService pool = conversionPool;
+        if (pool == null) {
+            return CompletableFuture.completedFuture(toDocuments(records, keyPath));
+        }
+
+        return pool.submit(() -> toDocuments(records, keyPath));
+    }
+
+    private void insert(ArangoCollection collection, List<BaseDocument> documents) {
+        MultiDocumentEntity<DocumentCreateEntity<Void>> result = collection.insertDocuments(documents);
+        Collection<ErrorEntity> errors = result.getErrors();
+        if (!errors.isEmpty()) {
+            String messages = errors.stream().limit(REPORTED_ERRORS).map(ErrorEntity::getErrorMessage).collect(Collectors.joining("; "));
+            throw new ProcessException(String.format("Failed to insert %d of %d documents: %s%s", errors.size(), documents.size(),
+                    messages, errors.size() > REPORTED_ERRORS ? "; ..." : ""));
+        }
+    }
+
+    /*
+     * A batch on its way to ArangoDB, converted on the conversion pool or, without one, on the task thread.
+     */
+    private static class Batch {
+        final Future<List<BaseDocument>> documents;
+
+        Batch(Future<List<BaseDocument>> documents) {
+            this.documents = documents;
+        }
+    }
+
+    private static final Batch END = new Batch(null);
+
+    /*
+     * Inserts batches in the order they were read. Without a sender pool each batch is inserted by the task thread as soon as
+     * it is handed over. With one, the batches are queued and call() inserts them on a sender thread until END is queued, so
+     * the task thread can keep reading while a request is in flight.
+     */
+    private class Sender implements Callable<Void> {
+        final ArangoCollection collection;
+        final BlockingQueue<Batch> queue;
+        Future<Void> running;
+
+        Sender(ArangoCollection collection) {
+            this.collection = collection;
+            this.queue = new ArrayBlockingQueue<>(maxInFlight + 1);
+        }
+
+        void start(ExecutorService pool) {
+            if (pool != null) {
+                running = pool.submit(this);
+            }
+        }
+
+        void send(Batch batch) throws Exception {
+            if (running == null) {
+                insert(batch);
+                return;
+            }
+
+            while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                if (running.isDone()) {
+                    running.get();
+                    throw new ProcessException("The sender stopped before every batch was sent.");
+                }
+            }
+        }
+
+        void finish() throws Exception {
+            if (running != null) {
+                send(END);
+                running.get();
+            }
+        }
+
+        void cancel() {
+            if (running != null) {
+                running.cancel(true);
+            }
+            for (Batch batch : queue) {
+                if (batch.documents != null) {
+                    batch.documents.cancel(true);
+                }
+            }
+        }
+
+        private void insert(Batch batch) throws Exception {
+            PutArangoDBRecord.this.insert(collection, batch.documents.get());
+        }
+
+        @Override
+        public Void call() throws Exception {
+            Batch batch;
+            while ((batch = queue.take()) != END) {
+                insert(batch);
+            }
+            return null;
+        }
+    }
+
     @Override
     public void onTrigger(ProcessContext context, ProcessSession session) throws ProcessException {
         FlowFile flowFile = session.get();
@@ -98,26 +339,31 @@ public class PutArangoDBRecord extends AbstractArangoDBProcessor {
             return;
         }
 
-        ArangoDB db = arangoDBClientService.getConnection();
+        Sender sender = null;
         try (InputStream is = session.read(flowFile)) {
+            ArangoDB db = getConnection();
             String recordPath = context.getProperty(KEY_RECORD_PATH).evaluateAttributeExpressions(flowFile).getValue();
             String dbName = context.getProperty(DATABASE_NAME).evaluateAttributeExpressions(flowFile).getValue();
             String colName = context.getProperty(COLLECTION_NAME).evaluateAttributeExpressions(flowFile).getValue();
-            ArangoCollection collection = db.db(dbName).collection(colName);
+            sender = new Sender(db.db(dbName).collection(colName));
+            sender.start(senderPool);
 
             RecordPath keyPath = recordPathCache.getCompiled(recordPath);
             RecordReader reader = readerFactory.createRecordReader(flowFile, is, getLogger());
             Record record;
+            List<Record> batch = new ArrayList<>(batchSize);
 
             while ((record = reader.nextRecord()) != null) {
-                String key = getKey(record, keyPath);
-                Map<String, Object> contentMap = (Map<String, Object>) DataTypeUtils
-                        .convertRecordFieldtoObject(record, RecordFieldType.RECORD.getRecordDataType(record.getSchema()));
-                BaseDocument document = new BaseDocument();
-                document.setKey(key);
-                document.setProperties(contentMap);
-                collection.insertDocument(document);
+                batch.add(record);
+                if (batch.size() == batchSize) {
+                    sender.send(new Batch(convert(batch, keyPath)));
+                    batch = new ArrayList<>(batchSize);
+                }
             }
+            if (!batch.isEmpty()) {
+                sender.send(new Batch(convert(batch, keyPath)));
+            }
+            sender.finish();
 
             reader.close();
             is.close();
@@ -125,9 +371,10 @@ public class PutArangoDBRecord extends AbstractArangoDBProcessor {
             session.transfer(flowFile, REL_SUCCESS);
         } catch (Exception ex) {
             getLogger().error("Failed processing record set.", ex);
+            if (sender != null) {
+                sender.cancel();
+            }
             session.transfer(flowFile, REL_FAILURE);
-        } finally {
-            db.shutdown();
         }
     }
 }
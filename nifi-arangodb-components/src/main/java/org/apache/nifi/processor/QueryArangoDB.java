@@ -28,7 +28,7 @@ import java.util.Set;
         "for large fetches of records.")
 public class QueryArangoDB extends AbstractArangoDBProcessor {
     public static final List<PropertyDescriptor> DESCRIPTORS = Collections.unmodifiableList(Arrays.asList(
-        CLIENT_SERVICE, QUERY, DATABASE_NAME
+        CLIENT_SERVICE, QUERY, DATABASE_NAME, CONNECTION_PROFILE, SERIALIZATION_FORMAT
     ));
 
     public static final Set<Relationship> RELATIONSHIPS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
@@ -58,9 +58,9 @@ public class QueryArangoDB extends AbstractArangoDBProcessor {
         String databaseName = context.getProperty(DATABASE_NAME).evaluateAttributeExpressions(flowFile).getValue();
         String query = context.getProperty(QUERY).evaluateAttributeExpressions(flowFile).getValue();
 
-        ArangoDB connection = arangoDBClientService.getConnection();
         List<FlowFile> flowFiles = new ArrayList<>();
         try {
+            ArangoDB connection = getConnection();
             ArangoIterator<Object> iterator = connection.db(databaseName).query(query, Object.class).iterator();
             while (iterator.hasNext()) {
                 Object next = iterator.next();
@@ -93,8 +93,6 @@ public class QueryArangoDB extends AbstractArangoDBProcessor {
             if (flowFile != null) {
                 session.transfer(flowFile, REL_FAILURE);
             }
-        } finally {
-            connection.shutdown();
         }
     }
 
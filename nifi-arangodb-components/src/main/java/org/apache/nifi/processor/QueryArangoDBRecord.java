@@ -1,33 +1,59 @@
 package org.apache.nifi.processor;
 
-import com.arangodb.ArangoDB;
-import com.arangodb.ArangoIterator;
+import com.arangodb.ArangoCursor;
 import com.arangodb.entity.BaseDocument;
+import com.arangodb.model.AqlQueryOptions;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
 import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.components.Validator;
 import org.apache.nifi.expression.ExpressionLanguageScope;
 import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.util.StandardValidators;
+import org.apache.nifi.schema.access.SchemaNotFoundException;
 import org.apache.nifi.serialization.RecordSetWriter;
 import org.apache.nifi.serialization.RecordSetWriterFactory;
+import org.apache.nifi.serialization.SimpleRecordSchema;
+import org.apache.nifi.serialization.WriteResult;
+import org.apache.nifi.serialization.record.DataType;
 import org.apache.nifi.serialization.record.MapRecord;
-import org.apache.nifi.serialization.record.Record;
 import org.apache.nifi.serialization.record.RecordSchema;
+import org.apache.nifi.serialization.record.type.ArrayDataType;
+import org.apache.nifi.serialization.record.type.ChoiceDataType;
+import org.apache.nifi.serialization.record.type.RecordDataType;
+import org.apache.nifi.serialization.record.util.DataTypeUtils;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Tags({ "query", "arangodb", "record" })
 @CapabilityDescription("This processor is intended to be used for fetching large volumes of data from ArangoDB. It uses " +
         "the NiFi Record API to provide the ability serialize result sets in a clean and consistent manner. For deletes, updates " +
-        "and aggregation queries, see QueryArangoDB.")
+        "and aggregation queries, see QueryArangoDB. When Batches Per Trigger is set, the query's cursor is kept open between " +
+        "runs so that a large export is written a few batches at a time and pauses while its output is backed up.")
 public class QueryArangoDBRecord extends AbstractArangoDBProcessor {
     public static final PropertyDescriptor RECORD_WRITER = new PropertyDescriptor.Builder()
         .name("arango-query-record-writer")
@@ -38,14 +64,80 @@ public class QueryArangoDBRecord extends AbstractArangoDBProcessor {
         .addValidator(Validator.VALID)
         .build();
 
+    public static final AllowableValue SCHEMA_FROM_WRITER = new AllowableValue("writer", "Use Writer Schema",
+            "Use the schema that the record writer resolves from the input flowfile's attributes. If there is no input " +
+            "flowfile, the schema is resolved from an empty set of attributes.");
+    public static final AllowableValue SCHEMA_INFER = new AllowableValue("infer", "Infer From Results",
+            "Infer the schema from the first documents in the result set and cache it by query. The cached schema is widened " +
+            "as documents with new fields or types are seen, and a new flowfile is started whenever the schema has to change.");
+    public static final PropertyDescriptor SCHEMA_STRATEGY = new PropertyDescriptor.Builder()
+        .name("arango-query-record-schema-strategy")
+        .displayName("Schema Strategy")
+        .description("Controls where the schema for the output record set comes from.")
+        .required(true)
+        .allowableValues(SCHEMA_FROM_WRITER, SCHEMA_INFER)
+        .defaultValue(SCHEMA_FROM_WRITER.getValue())
+        .addValidator(Validator.VALID)
+        .build();
+
+    public static final PropertyDescriptor SCHEMA_SAMPLE_SIZE = new PropertyDescriptor.Builder()
+        .name("arango-query-record-schema-sample-size")
+        .displayName("Schema Sample Size")
+        .description("The number of documents to read from the start of the result set to infer the schema when there is " +
+                "no cached schema for the query. Only used when the schema strategy is set to infer from results.")
+        .required(true)
+        .defaultValue("100")
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor BATCH_SIZE = new PropertyDescriptor.Builder()
+        .name("arango-query-record-batch-size")
+        .displayName("Batch Size")
+        .description("The number of documents the server returns per cursor round trip. When Batches Per Trigger is set, this " +
+                "is also the maximum number of records in each output flowfile.")
+        .required(true)
+        .defaultValue("1000")
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    static final int KEEP_ALIVE_BATCHES = 10;
+
+    public static final PropertyDescriptor BATCHES_PER_TRIGGER = new PropertyDescriptor.Builder()
+        .name("arango-query-record-batches-per-trigger")
+        .displayName("Batches Per Trigger")
+        .description("If set, the query's cursor is kept open between runs instead of being drained in one go. Each run writes " +
+                "at most this many batches to their own flowfiles, commits them and returns, and it stops early when the success " +
+                "relationship is backed up. The input flowfile goes to original with the first batches and its attributes are " +
+                "copied to every output flowfile. If the cursor fails after that, a flowfile with the same attributes and an " +
+                "arangodb.emitted.record.count attribute holding the number of records already sent to success goes to failure.")
+        .required(false)
+        .addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR)
+        .build();
+
+    public static final PropertyDescriptor CURSOR_TTL = new PropertyDescriptor.Builder()
+        .name("arango-query-record-cursor-ttl")
+        .displayName("Cursor TTL")
+        .description("How long the server keeps an idle cursor open between runs when Batches Per Trigger is set. The server " +
+                "only extends it when a batch is fetched, so a cursor that has been idle for half this time reads one batch " +
+                "ahead into memory. At most " + KEEP_ALIVE_BATCHES + " batches per cursor are read ahead this way; if back " +
+                "pressure lasts longer than that, the cursor expires and the export goes to failure when it resumes.")
+        .required(true)
+        .defaultValue("10 min")
+        .addValidator(StandardValidators.TIME_PERIOD_VALIDATOR)
+        .build();
+
     public static final List<PropertyDescriptor> DESCRIPTORS = Collections.unmodifiableList(Arrays.asList(
-        CLIENT_SERVICE, QUERY, RECORD_WRITER, DATABASE_NAME
+        CLIENT_SERVICE, QUERY, RECORD_WRITER, DATABASE_NAME, SCHEMA_STRATEGY, SCHEMA_SAMPLE_SIZE, BATCH_SIZE, BATCHES_PER_TRIGGER,
+            CURSOR_TTL, CONNECTION_PROFILE, SERIALIZATION_FORMAT
     ));
 
     public static final Set<Relationship> RELATIONSHIPS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
         REL_SUCCESS, REL_FAILURE, REL_ORIGINAL
     )));
 
+    static final int SCHEMA_CACHE_SIZE = 25;
+    public static final String EMITTED_COUNT_ATTRIBUTE = "arangodb.emitted.record.count";
+
     @Override
     public List<PropertyDescriptor> getSupportedPropertyDescriptors() {
         return DESCRIPTORS;
@@ -57,43 +149,376 @@ public class QueryArangoDBRecord extends AbstractArangoDBProcessor {
     }
 
     private volatile RecordSetWriterFactory writerFactory;
+    private volatile boolean inferSchema;
+    private volatile int sampleSize;
+    private volatile int batchSize;
+    private volatile Integer batchesPerTrigger;
+    private volatile int cursorTtl;
+    private final Map<String, RecordSchema> schemaCache = Collections.synchronizedMap(
+        new LinkedHashMap<String, RecordSchema>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RecordSchema> eldest) {
+                return size() > SCHEMA_CACHE_SIZE;
+            }
+        });
+    private final Queue<ResultStream> openStreams = new ConcurrentLinkedQueue<>();
+    private volatile ScheduledExecutorService keepAliveExecutor;
+
+    /*
+     * An open query plus the documents that were read ahead of the writer. Kept between triggers when the cursor is resumable,
+     * in which case the trigger and the keep-alive task synchronize on it. The keep-alive task appends to the end of the
+     * pending queue, so readAhead, the number of its documents not yet consumed, never exceeds the size of the queue.
+     */
+    private class ResultStream implements Closeable {
+        final ArangoCursor<BaseDocument> cursor;
+        final Map<String, String> attributes;
+        final String cacheKey;
+        final Deque<Map<String, Object>> pending = new ArrayDeque<>();
+        RecordSchema schema;
+        long emitted;
+        int readAhead;
+        long lastUsed = System.currentTimeMillis();
+        boolean closed;
+
+        ResultStream(ArangoCursor<BaseDocument> cursor, Map<String, String> attributes, String cacheKey) {
+            this.cursor = cursor;
+            this.attributes = attributes;
+            this.cacheKey = cacheKey;
+        }
+
+        boolean hasNext() {
+            return !pending.isEmpty() || cursor.hasNext();
+        }
+
+        Map<String, Object> next() {
+            if (pending.isEmpty()) {
+                return cursor.next().getProperties();
+            }
+
+            Map<String, Object> document = pending.poll();
+            readAhead = Math.min(readAhead, pending.size());
+            return document;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            try {
+                cursor.close();
+            } catch (Exception ex) {
+                getLogger().warn("Failed to close cursor.", ex);
+            }
+        }
+    }
 
     @OnScheduled
     public void onScheduled(ProcessContext context) {
         super.onScheduled(context);
         writerFactory = context.getProperty(RECORD_WRITER).asControllerService(RecordSetWriterFactory.class);
+        inferSchema = context.getProperty(SCHEMA_STRATEGY).getValue().equals(SCHEMA_INFER.getValue());
+        sampleSize = context.getProperty(SCHEMA_SAMPLE_SIZE).asInteger();
+        batchSize = context.getProperty(BATCH_SIZE).asInteger();
+        batchesPerTrigger = context.getProperty(BATCHES_PER_TRIGGER).asInteger();
+        cursorTtl = context.getProperty(CURSOR_TTL).asTimePeriod(TimeUnit.SECONDS).intValue();
+        schemaCache.clear();
+
+        if (batchesPerTrigger != null) {
+            long period = Math.max(1, cursorTtl / 4);
+            keepAliveExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, String.format("QueryArangoDBRecord[id=%s] cursor keep-alive", getIdentifier()));
+                thread.setDaemon(true);
+                return thread;
+            });
+            keepAliveExecutor.scheduleWithFixedDelay(this::keepAlive, period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    @OnStopped
+    public void onStopped() {
+        if (keepAliveExecutor != null) {
+            keepAliveExecutor.shutdownNow();
+            keepAliveExecutor = null;
+        }
+
+        ResultStream stream;
+        while ((stream = openStreams.poll()) != null) {
+            stream.close();
+        }
     }
 
     @Override
     public void onTrigger(ProcessContext context, ProcessSession session) {
+        if (batchesPerTrigger != null) {
+            resume(context, session);
+            return;
+        }
+
         FlowFile flowFile = session.get();
-        FlowFile output = flowFile != null ? session.create(flowFile) : session.create();
-        ArangoDB connection = arangoDBClientService.getConnection();
-
-        try (OutputStream os = session.write(output)) {
-            String query = context.getProperty(QUERY).evaluateAttributeExpressions(flowFile).getValue();
-            String dbName = context.getProperty(DATABASE_NAME).evaluateAttributeExpressions(flowFile).getValue();
-            RecordSchema schema = writerFactory.getSchema(flowFile.getAttributes(), null);
-            RecordSetWriter writer = writerFactory.createWriter(getLogger(), schema, os);
-            ArangoIterator<BaseDocument> results = connection.db(dbName).query(query, BaseDocument.class).iterator();
-            writer.beginRecordSet();
-            while (results.hasNext()) {
-                BaseDocument document = results.next();
-                Record record = new MapRecord(schema, document.getProperties());
-                writer.write(record);
-            }
-            writer.finishRecordSet();
-            writer.close();
-            os.close();
+        if (flowFile == null && context.hasIncomingConnection()) {
+            return;
+        }
 
-            session.transfer(output, REL_SUCCESS);
-            session.transfer(flowFile, REL_ORIGINAL);
+        List<FlowFile> outputs = new ArrayList<>();
+        ResultStream stream = null;
+
+        try {
+            stream = openStream(context, flowFile);
+            do {
+                outputs.add(writeOutput(session, flowFile, stream, 0));
+            } while (stream.hasNext());
+
+            session.transfer(outputs, REL_SUCCESS);
+            if (flowFile != null) {
+                session.transfer(flowFile, REL_ORIGINAL);
+            }
         } catch (Exception ex) {
             getLogger().error("", ex);
-            session.remove(output);
-            session.transfer(flowFile, REL_FAILURE);
+            session.remove(outputs);
+            if (flowFile != null) {
+                session.transfer(flowFile, REL_FAILURE);
+            }
         } finally {
-            connection.shutdown();
+            if (stream != null) {
+                stream.close();
+            }
         }
     }
+
+    /*
+     * Continues an open cursor, or starts a new one, and writes a bounded number of batches before committing. The cursor is
+     * only put back for the next trigger once the session has been committed. When the cursor fails, whatever this trigger
+     * wrote is dropped and a flowfile carrying the query's attributes and the number of records already emitted goes to
+     * failure, so that the export can be retried or reconciled downstream.
+     */
+    private void resume(ProcessContext context, ProcessSession session) {
+        FlowFile input = null;
+        ResultStream stream = openStreams.poll();
+        if (stream == null) {
+            input = session.get();
+            if (input == null && context.hasIncomingConnection()) {
+                return;
+            }
+
+            try {
+                stream = openStream(context, input);
+            } catch (Exception ex) {
+                getLogger().error("", ex);
+                if (input != null) {
+                    session.transfer(input, REL_FAILURE);
+                }
+                return;
+            }
+        }
+
+        List<FlowFile> outputs = new ArrayList<>();
+        boolean keepOpen = false;
+        synchronized (stream) {
+            try {
+                long written = 0;
+                while (outputs.size() < batchesPerTrigger && stream.hasNext() && context.getAvailableRelationships().contains(REL_SUCCESS)) {
+                    FlowFile output = writeOutput(session, input, stream, batchSize);
+                    outputs.add(output);
+                    written += Long.parseLong(output.getAttribute("record.count"));
+                }
+                session.transfer(outputs, REL_SUCCESS);
+                if (input != null) {
+                    session.transfer(input, REL_ORIGINAL);
+                }
+                session.commit();
+                stream.emitted += written;
+                stream.lastUsed = System.currentTimeMillis();
+
+                if (stream.hasNext()) {
+                    openStreams.add(stream);
+                    keepOpen = true;
+                    if (!context.getAvailableRelationships().contains(REL_SUCCESS)) {
+                        context.yield();
+                    }
+                }
+            } catch (Exception ex) {
+                getLogger().error("Failed to write from the open cursor after {} records; the rest of its result set is abandoned.",
+                        new Object[] { stream.emitted }, ex);
+                session.remove(outputs);
+                FlowFile failure = input != null ? input : session.putAllAttributes(session.create(), stream.attributes);
+                failure = session.putAttribute(failure, EMITTED_COUNT_ATTRIBUTE, String.valueOf(stream.emitted));
+                session.transfer(failure, REL_FAILURE);
+                context.yield();
+            } finally {
+                if (!keepOpen) {
+                    stream.close();
+                }
+            }
+        }
+    }
+
+    /*
+     * The server only extends a cursor's TTL when a batch is fetched. A cursor that has been parked for half its TTL therefore
+     * reads past the documents the driver already holds, which forces at least one fetch, and keeps them as pending documents
+     * for the next trigger. Once it has read KEEP_ALIVE_BATCHES batches ahead that way the cursor is left alone, so memory
+     * stays bounded no matter how many documents schema sampling already buffered.
+     */
+    private void keepAlive() {
+        long idleSince = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(cursorTtl) / 2;
+        for (ResultStream stream : openStreams) {
+            synchronized (stream) {
+                if (stream.closed || stream.lastUsed > idleSince || stream.readAhead >= KEEP_ALIVE_BATCHES * batchSize) {
+                    continue;
+                }
+
+                try {
+                    for (int i = 0; i <= batchSize && stream.cursor.hasNext(); i++) {
+                        stream.pending.add(stream.cursor.next().getProperties());
+                        stream.readAhead++;
+                    }
+                    stream.lastUsed = System.currentTimeMillis();
+                } catch (Exception ex) {
+                    getLogger().warn("Failed to keep an open cursor alive.", ex);
+                }
+            }
+        }
+    }
+
+    private ResultStream openStream(ProcessContext context, FlowFile flowFile) throws IOException, SchemaNotFoundException {
+        String query = context.getProperty(QUERY).evaluateAttributeExpressions(flowFile).getValue();
+        String dbName = context.getProperty(DATABASE_NAME).evaluateAttributeExpressions(flowFile).getValue();
+        Map<String, String> attributes = flowFile != null ? flowFile.getAttributes() : Collections.emptyMap();
+        AqlQueryOptions options = new AqlQueryOptions()
+                .allowDirtyRead(arangoDBClientService.isDirtyReadAllowed(connectionProfile))
+                .batchSize(batchSize);
+        if (batchesPerTrigger != null) {
+            options = options.stream(true).ttl(cursorTtl);
+        }
+
+        ArangoCursor<BaseDocument> cursor = getConnection().db(dbName).query(query, BaseDocument.class, options);
+        ResultStream stream = new ResultStream(cursor, attributes, dbName + "\n" + query);
+
+        try {
+            if (inferSchema) {
+                stream.schema = schemaCache.get(stream.cacheKey);
+                if (stream.schema == null) {
+                    RecordSchema schema = new SimpleRecordSchema(Collections.emptyList());
+                    while (stream.pending.size() < sampleSize && stream.cursor.hasNext()) {
+                        Map<String, Object> document = stream.cursor.next().getProperties();
+                        schema = widenSchema(schema, document);
+                        stream.pending.add(document);
+                    }
+                    stream.schema = schema;
+                    schemaCache.put(stream.cacheKey, schema);
+                }
+            } else {
+                stream.schema = writerFactory.getSchema(attributes, null);
+            }
+        } catch (Exception ex) {
+            stream.close();
+            throw ex;
+        }
+
+        return stream;
+    }
+
+    /*
+     * Writes documents to a new flowfile until the results are exhausted, the limit is reached or, when inferring, a document
+     * no longer fits the schema. That document is pushed back onto the pending queue so that it starts the next flowfile.
+     * A limit of zero means no limit.
+     */
+    private FlowFile writeOutput(ProcessSession session, FlowFile parent, ResultStream stream, int limit) throws IOException, SchemaNotFoundException {
+        if (inferSchema && stream.hasNext()) {
+            Map<String, Object> first = stream.next();
+            stream.pending.addFirst(first);
+            if (!isCompatible(stream.schema, first)) {
+                stream.schema = widenSchema(stream.schema, first);
+                schemaCache.put(stream.cacheKey, stream.schema);
+            }
+        }
+
+        RecordSchema schema = stream.schema;
+        FlowFile output = parent != null ? session.create(parent) : session.create();
+        try {
+            WriteResult result;
+            String mimeType;
+            try (OutputStream os = session.write(output);
+                 RecordSetWriter writer = writerFactory.createWriter(getLogger(), schema, os)) {
+                writer.beginRecordSet();
+                int count = 0;
+                while (stream.hasNext() && (limit == 0 || count < limit)) {
+                    Map<String, Object> document = stream.next();
+                    if (inferSchema && count > 0 && !isCompatible(schema, document)) {
+                        stream.pending.addFirst(document);
+                        break;
+                    }
+                    writer.write(new MapRecord(schema, document));
+                    count++;
+                }
+                result = writer.finishRecordSet();
+                mimeType = writer.getMimeType();
+            }
+
+            Map<String, String> attributes = new HashMap<>();
+            if (parent == null) {
+                attributes.putAll(stream.attributes);
+            }
+            attributes.putAll(result.getAttributes());
+            attributes.put("record.count", String.valueOf(result.getRecordCount()));
+            attributes.put(CoreAttributes.MIME_TYPE.key(), mimeType);
+            output = session.putAllAttributes(output, attributes);
+            return output;
+        } catch (Exception ex) {
+            session.remove(output);
+            throw ex;
+        }
+    }
+
+    /*
+     * Checks the document against the schema all the way down, so that a new field in a nested object or in an array of
+     * objects rolls the output over just like a new top level field does.
+     */
+    private boolean isCompatible(RecordSchema schema, Map<String, Object> document) {
+        for (Map.Entry<String, Object> entry : document.entrySet()) {
+            Optional<DataType> dataType = schema.getDataType(entry.getKey());
+            if (entry.getValue() != null && (!dataType.isPresent() || !isCompatible(entry.getValue(), dataType.get()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean isCompatible(Object value, DataType dataType) {
+        if (value == null) {
+            return true;
+        }
+
+        switch (dataType.getFieldType()) {
+            case CHOICE:
+                for (DataType subType : ((ChoiceDataType) dataType).getPossibleSubTypes()) {
+                    if (isCompatible(value, subType)) {
+                        return true;
+                    }
+                }
+                return false;
+            case MAP:
+                return value instanceof Map;
+            case RECORD:
+                return value instanceof Map && isCompatible(((RecordDataType) dataType).getChildSchema(), (Map<String, Object>) value);
+            case ARRAY:
+                if (!(value instanceof List || value instanceof Object[])) {
+                    return DataTypeUtils.isCompatibleDataType(value, dataType);
+                }
+                DataType elementType = ((ArrayDataType) dataType).getElementType();
+                for (Object element : value instanceof List ? (List<Object>) value : Arrays.asList((Object[]) value)) {
+                    if (!isCompatible(element, elementType)) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                return !(value instanceof Map) && !(value instanceof List) && DataTypeUtils.isCompatibleDataType(value, dataType);
+        }
+    }
+
+    private RecordSchema widenSchema(RecordSchema schema, Map<String, Object> document) {
+        RecordSchema inferred = DataTypeUtils.inferSchema(document, null, StandardCharsets.UTF_8);
+        return DataTypeUtils.merge(schema, inferred);
+    }
 }
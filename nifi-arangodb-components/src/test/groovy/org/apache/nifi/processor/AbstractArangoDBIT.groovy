@@ -44,8 +44,8 @@ class AbstractArangoDBIT {
     @After
     void tearDown() {
         if (arangoDB) {
-            arangoDB.db("nifi").drop()
-            arangoDB.shutdown()
+            clientService.getConnection().db("nifi").drop()
+            runner.disableControllerService(clientService)
         }
     }
 }
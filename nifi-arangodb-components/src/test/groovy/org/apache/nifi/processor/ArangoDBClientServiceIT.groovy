@@ -0,0 +1,94 @@
+package org.apache.nifi.processor
+
+import groovy.test.GroovyAssert
+import org.apache.nifi.arango.common.ArangoClientConfiguration
+import org.apache.nifi.controller.ArangoDBClientService
+import org.apache.nifi.controller.ArangoDBClientServiceImpl
+import org.apache.nifi.processor.exception.ProcessException
+import org.apache.nifi.util.TestRunner
+import org.apache.nifi.util.TestRunners
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+class ArangoDBClientServiceIT {
+    TestRunner runner
+    ArangoDBClientService clientService
+
+    static final String FORMAT_DEFAULT = ArangoClientConfiguration.FORMAT_DEFAULT.getValue()
+
+    @Before
+    void setup() {
+        clientService = new ArangoDBClientServiceImpl()
+        runner = TestRunners.newTestRunner(MockProcessor.class)
+        runner.addControllerService("clientService", clientService)
+        runner.setProperty(clientService, ArangoDBClientServiceImpl.HOSTS, "localhost:8529")
+        runner.setProperty(clientService, ArangoDBClientServiceImpl.USERNAME, "root")
+        runner.setProperty(clientService, ArangoDBClientServiceImpl.PASSWORD, "testing1234")
+    }
+
+    @After
+    void tearDown() {
+        if (runner.isControllerServiceEnabled(clientService)) {
+            runner.disableControllerService(clientService)
+        }
+    }
+
+    @Test
+    void testDefaultProfile() {
+        runner.enableControllerService(clientService)
+
+        def connection = clientService.getConnection()
+        assert connection.getVersion().getVersion()
+        assert clientService.getConnection("", FORMAT_DEFAULT).is(connection)
+        assert !clientService.isDirtyReadAllowed("")
+    }
+
+    @Test
+    void testConnectionProfile() {
+        runner.setProperty(clientService, "export.hosts", "localhost:8529")
+        runner.setProperty(clientService, "export.max.connections", "2")
+        runner.setProperty(clientService, "export.allow.dirty.read", "true")
+        runner.enableControllerService(clientService)
+
+        def connection = clientService.getConnection("export", FORMAT_DEFAULT)
+        assert connection.getVersion().getVersion()
+        assert clientService.getConnection("export", FORMAT_DEFAULT).is(connection)
+        assert !clientService.getConnection().is(connection)
+        assert clientService.isDirtyReadAllowed("export")
+        assert !clientService.isDirtyReadAllowed("")
+    }
+
+    @Test
+    void testProfileHostList() {
+        runner.setProperty(clientService, "bulk.hosts", "127.0.0.1:8529")
+        runner.setProperty(clientService, "bulk.fetch.host.list", "true")
+        runner.setProperty(clientService, "pinned.fetch.host.list", "false")
+        runner.enableControllerService(clientService)
+
+        assert clientService.getConnection("bulk", FORMAT_DEFAULT).getVersion().getVersion()
+        assert clientService.getConnection("pinned", FORMAT_DEFAULT).getVersion().getVersion()
+    }
+
+    @Test
+    void testUnknownProfile() {
+        runner.enableControllerService(clientService)
+
+        GroovyAssert.shouldFail(ProcessException) {
+            clientService.getConnection("missing", FORMAT_DEFAULT)
+        }
+        GroovyAssert.shouldFail(ProcessException) {
+            clientService.isDirtyReadAllowed("missing")
+        }
+    }
+
+    @Test
+    void testDisabledService() {
+        runner.enableControllerService(clientService)
+        runner.disableControllerService(clientService)
+
+        GroovyAssert.shouldFail(ProcessException) {
+            clientService.getConnection()
+        }
+    }
+}
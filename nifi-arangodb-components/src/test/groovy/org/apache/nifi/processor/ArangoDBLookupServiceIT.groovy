@@ -15,7 +15,8 @@ import org.junit.Test
 
 class ArangoDBLookupServiceIT {
     TestRunner runner
-    LookupService<Record> lookupService
+    ArangoDBLookupService lookupService
+    ArangoDBClientService clientService
     ArangoDB connection
 
     static final String DB = "lookup_tests"
@@ -24,7 +25,7 @@ class ArangoDBLookupServiceIT {
     @Before
     void setup() {
         lookupService = new ArangoDBLookupService()
-        ArangoDBClientService clientService = new ArangoDBClientServiceImpl()
+        clientService = new ArangoDBClientServiceImpl()
         runner = TestRunners.newTestRunner(MockProcessor.class)
         runner.addControllerService("lookupService", lookupService)
         runner.addControllerService("clientService", clientService)
@@ -44,8 +45,11 @@ class ArangoDBLookupServiceIT {
 
     @After
     void tearDown() {
+        if (runner.isControllerServiceEnabled(lookupService)) {
+            runner.disableControllerService(lookupService)
+        }
         connection.db(DB).drop()
-        connection.shutdown()
+        runner.disableControllerService(clientService)
     }
 
     @Test
@@ -68,4 +72,78 @@ class ArangoDBLookupServiceIT {
         def record = lookupService.lookup([ is_from: "e.goldstein" ])
         assert record?.isPresent()
     }
+
+    @Test
+    void testCachedLookup() {
+        def db = connection.db(DB)
+        db.query("""
+            FOR i IN 1..100
+              INSERT { user: CONCAT('user', TO_STRING(i)), updated: i } IN ${COL}
+        """, Object.class)
+        runner.setProperty(lookupService, ArangoDBLookupService.QUERY, """
+            FOR doc IN ${COL}
+                FILTER doc.updated >= @watermark
+            RETURN doc
+        """)
+        runner.setProperty(lookupService, ArangoDBLookupService.LOOKUP_MODE, ArangoDBLookupService.MODE_CACHE)
+        runner.setProperty(lookupService, ArangoDBLookupService.CACHE_KEY_FIELDS, "user")
+        runner.setProperty(lookupService, ArangoDBLookupService.WATERMARK_FIELD, "updated")
+        runner.setProperty(lookupService, lookupService.getPropertyDescriptor(SchemaAccessUtils.SCHEMA_ACCESS_STRATEGY.name), SchemaAccessUtils.INFER_SCHEMA)
+        runner.enableControllerService(lookupService)
+
+        assert lookupService.getCacheSize() == 100
+        assert lookupService.getRequiredKeys() == [ "user" ] as Set
+        def record = lookupService.lookup([ user: "user42" ])
+        assert record?.isPresent()
+        assert record.get().getAsInt("updated") == 42
+        assert !lookupService.lookup([ user: "nobody" ]).isPresent()
+        assert record.get().getValue("_rev") == null
+        assert lookupService.getEstimatedCacheBytes() > 0
+
+        record.get().setValue("updated", -1)
+        assert lookupService.lookup([ user: "user42" ]).get().getAsInt("updated") == 42
+    }
+
+    @Test
+    void testIncrementalRefresh() {
+        def db = connection.db(DB)
+        db.query("""
+            FOR i IN 1..100
+              INSERT { user: CONCAT('user', TO_STRING(i)), updated: i, status: 'new' } IN ${COL}
+        """, Object.class)
+        runner.setProperty(lookupService, ArangoDBLookupService.QUERY, """
+            FOR doc IN ${COL}
+                FILTER doc.updated >= @watermark
+            RETURN doc
+        """)
+        runner.setProperty(lookupService, ArangoDBLookupService.LOOKUP_MODE, ArangoDBLookupService.MODE_CACHE)
+        runner.setProperty(lookupService, ArangoDBLookupService.CACHE_KEY_FIELDS, "user")
+        runner.setProperty(lookupService, ArangoDBLookupService.WATERMARK_FIELD, "updated")
+        runner.setProperty(lookupService, ArangoDBLookupService.REFRESH_INTERVAL, "500 millis")
+        runner.setProperty(lookupService, lookupService.getPropertyDescriptor(SchemaAccessUtils.SCHEMA_ACCESS_STRATEGY.name), SchemaAccessUtils.INFER_SCHEMA)
+        runner.enableControllerService(lookupService)
+        assert lookupService.getCacheSize() == 100
+        def loadedBytes = lookupService.getEstimatedCacheBytes()
+
+        db.query("""
+            FOR doc IN ${COL}
+                FILTER doc.user == 'user42'
+                UPDATE doc WITH { updated: 100, status: 'changed' } IN ${COL}
+        """, Object.class)
+        db.query("""
+            INSERT { user: 'user101', updated: 101, status: 'new' } IN ${COL}
+        """, Object.class)
+
+        def deadline = System.currentTimeMillis() + 10000
+        while (lookupService.getCacheSize() < 101 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100)
+        }
+
+        assert lookupService.getCacheSize() == 101
+        assert lookupService.getEstimatedCacheBytes() > loadedBytes
+        assert lookupService.lookup([ user: "user101" ]).isPresent()
+        def changed = lookupService.lookup([ user: "user42" ])
+        assert changed.get().getAsInt("updated") == 100
+        assert changed.get().getValue("status") == "changed"
+    }
 }
@@ -0,0 +1,77 @@
+package org.apache.nifi.processor
+
+import groovy.test.GroovyAssert
+import org.apache.nifi.serialization.record.MockRecordParser
+import org.apache.nifi.serialization.record.RecordFieldType
+import org.junit.Before
+import org.junit.Test
+
+class DeleteArangoDBIT extends AbstractArangoDBIT {
+    MockRecordParser readerFactory
+
+    @Before
+    void setup() {
+        readerFactory = new MockRecordParser()
+        super.setup(DeleteArangoDB.class)
+        runner.addControllerService("recordReader", readerFactory)
+        runner.setProperty(DeleteArangoDB.COLLECTION_NAME, "messages")
+        runner.setProperty(DeleteArangoDB.RECORD_READER, "recordReader")
+        runner.setProperty(DeleteArangoDB.KEY_RECORD_PATH, "/id")
+        runner.setProperty(DeleteArangoDB.BATCH_SIZE, "1")
+        runner.enableControllerService(clientService)
+        runner.enableControllerService(readerFactory)
+        super.setupTestDocuments()
+    }
+
+    long count() {
+        arangoDB.db("nifi").query("FOR message IN messages COLLECT WITH COUNT INTO cnt RETURN cnt", Long.class).iterator().next()
+    }
+
+    @Test
+    void testDeleteFromRecords() {
+        readerFactory.addSchemaField("id", RecordFieldType.STRING)
+        readerFactory.addRecord("1")
+        readerFactory.addRecord("missing")
+        runner.assertValid()
+        runner.enqueue("test")
+        runner.run()
+
+        runner.assertTransferCount(DeleteArangoDB.REL_FAILURE, 0)
+        runner.assertTransferCount(DeleteArangoDB.REL_SUCCESS, 1)
+        runner.getFlowFilesForRelationship(DeleteArangoDB.REL_SUCCESS)[0].assertAttributeEquals(DeleteArangoDB.DELETED_COUNT_ATTRIBUTE, "1")
+        assert runner.getCounterValue(DeleteArangoDB.COUNTER_NAME) == 1
+        assert count() == 1
+    }
+
+    @Test
+    void testDeleteFromQuery() {
+        runner.setProperty(DeleteArangoDB.KEY_SOURCE, DeleteArangoDB.KEYS_FROM_QUERY)
+        runner.setProperty(DeleteArangoDB.KEY_QUERY, "FOR message IN messages RETURN message._key")
+        runner.setProperty(DeleteArangoDB.MAX_BATCHES_PER_SECOND, "10")
+        runner.setIncomingConnection(false)
+        runner.assertValid()
+        runner.run()
+
+        assert runner.getCounterValue(DeleteArangoDB.COUNTER_NAME) == 2
+        assert count() == 0
+    }
+
+    @Test
+    void testQueryYieldsWhenNothingIsDeleted() {
+        runner.setProperty(DeleteArangoDB.KEY_SOURCE, DeleteArangoDB.KEYS_FROM_QUERY)
+        runner.setProperty(DeleteArangoDB.KEY_QUERY, "FOR message IN messages FILTER message.from == 'nobody' RETURN message._key")
+        runner.setIncomingConnection(false)
+        runner.run()
+
+        assert runner.getProcessContext().isYieldCalled()
+        assert count() == 2
+    }
+
+    @Test
+    void testRecordsNeedAnIncomingConnection() {
+        runner.setIncomingConnection(false)
+        GroovyAssert.shouldFail(AssertionError) {
+            runner.run()
+        }
+    }
+}
@@ -1,12 +1,19 @@
 package org.apache.nifi.processor
 
+import com.arangodb.entity.BaseDocument
 import org.apache.nifi.serialization.RecordReaderFactory
 import org.apache.nifi.serialization.record.MockRecordParser
+import org.apache.nifi.serialization.record.RecordField
 import org.apache.nifi.serialization.record.RecordFieldType
 import org.junit.Before
 import org.junit.Test
 import org.testng.Assert
 
+import java.sql.Date
+import java.sql.Time
+import java.sql.Timestamp
+import java.time.Instant
+
 class PutArangoDBRecordIT extends AbstractArangoDBIT {
     RecordReaderFactory readerFactory
 
@@ -45,4 +52,60 @@ class PutArangoDBRecordIT extends AbstractArangoDBIT {
         def count = arangoDB.db("nifi").query("FOR message IN messages COLLECT WITH COUNT INTO cnt RETURN cnt", Long.class).iterator().next()
         Assert.assertEquals(2l, count)
     }
+
+    @Test
+    void testParallelConversion() {
+        (3..50).each { readerFactory.addRecord(it, "Message ${it}", "john.smith", "jane.doe") }
+        runner.setProperty(PutArangoDBRecord.BATCH_SIZE, "5")
+        runner.setProperty(PutArangoDBRecord.CONVERSION_THREADS, "4")
+        runner.enqueue("test")
+        runner.run()
+
+        runner.assertTransferCount(PutArangoDBRecord.REL_FAILURE, 0)
+        runner.assertTransferCount(PutArangoDBRecord.REL_SUCCESS, 1)
+
+        def count = arangoDB.db("nifi").query("FOR message IN messages COLLECT WITH COUNT INTO cnt RETURN cnt", Long.class).iterator().next()
+        Assert.assertEquals(50l, count)
+    }
+
+    @Test
+    void testInsertErrorsAreReported() {
+        def messages = arangoDB.db("nifi").collection("messages")
+        messages.insertDocument(new BaseDocument("1"))
+        messages.insertDocument(new BaseDocument("2"))
+        runner.enqueue("test")
+        runner.run()
+
+        runner.assertTransferCount(PutArangoDBRecord.REL_FAILURE, 1)
+        def error = runner.getLogger().getErrorMessages()[0].throwable
+        assert error.message.contains("Failed to insert 2 of 2 documents")
+    }
+
+    @Test
+    void testStoredTypes() {
+        def typedReader = new MockRecordParser()
+        runner.addControllerService("typedReader", typedReader)
+        runner.enableControllerService(typedReader)
+        runner.setProperty(PutArangoDBRecord.RECORD_READER, "typedReader")
+        typedReader.addSchemaField("id", RecordFieldType.INT)
+        typedReader.addSchemaField("created", RecordFieldType.TIMESTAMP)
+        typedReader.addSchemaField("day", RecordFieldType.DATE)
+        typedReader.addSchemaField("at", RecordFieldType.TIME)
+        typedReader.addSchemaField("amount", RecordFieldType.DECIMAL)
+        typedReader.addSchemaField(new RecordField("payload", RecordFieldType.ARRAY.getArrayDataType(RecordFieldType.BYTE.getDataType())))
+        typedReader.addRecord(10, new Timestamp(Instant.parse("2021-03-04T05:06:07.089Z").toEpochMilli()),
+                Date.valueOf("2021-03-04"), Time.valueOf("05:06:00"), new BigDecimal("12345678901234567890.12"), "hello".bytes)
+        runner.enqueue("test")
+        runner.run()
+
+        runner.assertTransferCount(PutArangoDBRecord.REL_FAILURE, 0)
+        runner.assertTransferCount(PutArangoDBRecord.REL_SUCCESS, 1)
+
+        def stored = arangoDB.db("nifi").collection("messages").getDocument("10", Map.class)
+        Assert.assertEquals(stored.created, "2021-03-04T05:06:07.089Z")
+        Assert.assertEquals(stored.day, "2021-03-04")
+        Assert.assertEquals(stored.at, "05:06:00")
+        Assert.assertEquals(stored.amount, "12345678901234567890.12")
+        Assert.assertEquals(stored.payload, "aGVsbG8=")
+    }
 }
@@ -1,6 +1,7 @@
 package org.apache.nifi.processor
 
 import groovy.json.JsonSlurper
+import org.apache.nifi.controller.ArangoDBClientServiceImpl
 import org.apache.nifi.flowfile.FlowFile
 import org.junit.Before
 import org.junit.Test
@@ -98,4 +99,21 @@ class QueryArangoDBIT extends AbstractArangoDBIT {
         runner.assertTransferCount(QueryArangoDB.REL_SUCCESS, 0)
         runner.assertTransferCount(QueryArangoDB.REL_ORIGINAL, 1)
     }
+
+    @Test
+    void testCompressedHttp2() {
+        runner.disableControllerService(clientService)
+        runner.setProperty(clientService, ArangoDBClientServiceImpl.PROTOCOL, ArangoDBClientServiceImpl.PROTOCOL_HTTP2_VPACK)
+        runner.setProperty(clientService, ArangoDBClientServiceImpl.COMPRESSION, ArangoDBClientServiceImpl.COMPRESSION_GZIP)
+        runner.setProperty(clientService, ArangoDBClientServiceImpl.COMPRESSION_THRESHOLD, "0")
+        runner.enableControllerService(clientService)
+        runner.setProperty(QueryArangoDB.SERIALIZATION_FORMAT, QueryArangoDB.FORMAT_JSON)
+        runner.setProperty(QueryArangoDB.QUERY, "FOR message IN messages COLLECT WITH COUNT INTO cnt RETURN cnt")
+        runner.run()
+
+        runner.assertTransferCount(QueryArangoDB.REL_SUCCESS, 1)
+        def ff = runner.getFlowFilesForRelationship(QueryArangoDB.REL_SUCCESS)[0]
+        def parsed = new JsonSlurper().parseText(new String(runner.getContentAsByteArray(ff)))
+        assert parsed["result"] == 2
+    }
 }
@@ -55,4 +55,194 @@ class QueryArangoDBRecordIT extends AbstractArangoDBIT {
         assert parsed instanceof List
         assert parsed.size() == 2
     }
+
+    @Test
+    void testInferSchemaWithoutInput() {
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_STRATEGY, QueryArangoDBRecord.SCHEMA_INFER)
+        runner.disableControllerService(writer)
+        runner.setProperty(writer, SchemaAccessUtils.SCHEMA_ACCESS_STRATEGY, SchemaAccessUtils.INHERIT_RECORD_SCHEMA)
+        runner.enableControllerService(writer)
+        runner.setIncomingConnection(false)
+        runner.run()
+        runner.assertTransferCount(QueryArangoDBRecord.REL_FAILURE, 0)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 1)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_ORIGINAL, 0)
+
+        def ff = runner.getFlowFilesForRelationship(QueryArangoDBRecord.REL_SUCCESS)[0]
+        ff.assertAttributeEquals("record.count", "2")
+        def parsed = new JsonSlurper().parseText(new String(runner.getContentAsByteArray(ff)))
+        assert parsed.size() == 2
+        assert parsed.every { it.from && it.to && it.message }
+    }
+
+    @Test
+    void testEmptyQueueIsSkipped() {
+        runner.run()
+        runner.assertTransferCount(QueryArangoDBRecord.REL_FAILURE, 0)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 0)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_ORIGINAL, 0)
+    }
+
+    @Test
+    void testInferSchemaRollover() {
+        arangoDB.db("nifi").collection("messages").insertDocument(new BaseDocument().with { doc ->
+            doc.key = "3"
+            doc.properties = [ "from": "john.smith", "to": "jane.doe", "message": "Wait!", "priority": 1 ]
+        })
+        runner.setProperty(QueryArangoDBRecord.QUERY, "FOR message IN messages SORT message._key RETURN message")
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_STRATEGY, QueryArangoDBRecord.SCHEMA_INFER)
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_SAMPLE_SIZE, "1")
+        runner.disableControllerService(writer)
+        runner.setProperty(writer, SchemaAccessUtils.SCHEMA_ACCESS_STRATEGY, SchemaAccessUtils.INHERIT_RECORD_SCHEMA)
+        runner.enableControllerService(writer)
+        runner.setIncomingConnection(false)
+        runner.run()
+        runner.assertTransferCount(QueryArangoDBRecord.REL_FAILURE, 0)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 2)
+
+        def flowFiles = runner.getFlowFilesForRelationship(QueryArangoDBRecord.REL_SUCCESS)
+        flowFiles[0].assertAttributeEquals("record.count", "2")
+        flowFiles[1].assertAttributeEquals("record.count", "1")
+        def parsed = new JsonSlurper().parseText(new String(runner.getContentAsByteArray(flowFiles[1])))
+        assert parsed[0].priority == 1
+    }
+
+    @Test
+    void testInferSchemaNestedRollover() {
+        def messages = arangoDB.db("nifi").collection("messages")
+        messages.insertDocument(new BaseDocument().with { doc ->
+            doc.key = "3"
+            doc.properties = [ "from": "john.smith", "message": "Wait!", "meta": [ "source": "web" ] ]
+        })
+        messages.insertDocument(new BaseDocument().with { doc ->
+            doc.key = "4"
+            doc.properties = [ "from": "john.smith", "message": "Stop!", "meta": [ "source": "web", "ip": "10.0.0.1" ] ]
+        })
+        runner.setProperty(QueryArangoDBRecord.QUERY, "FOR message IN messages FILTER message.meta != null SORT message._key RETURN message")
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_STRATEGY, QueryArangoDBRecord.SCHEMA_INFER)
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_SAMPLE_SIZE, "1")
+        runner.disableControllerService(writer)
+        runner.setProperty(writer, SchemaAccessUtils.SCHEMA_ACCESS_STRATEGY, SchemaAccessUtils.INHERIT_RECORD_SCHEMA)
+        runner.enableControllerService(writer)
+        runner.setIncomingConnection(false)
+        runner.run()
+        runner.assertTransferCount(QueryArangoDBRecord.REL_FAILURE, 0)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 2)
+
+        def flowFiles = runner.getFlowFilesForRelationship(QueryArangoDBRecord.REL_SUCCESS)
+        flowFiles.each { it.assertAttributeEquals("record.count", "1") }
+        def parsed = new JsonSlurper().parseText(new String(runner.getContentAsByteArray(flowFiles[1])))
+        assert parsed[0].meta.ip == "10.0.0.1"
+    }
+
+    @Test
+    void testConnectionProfile() {
+        runner.disableControllerService(clientService)
+        runner.setProperty(clientService, "export.hosts", "localhost:8529")
+        runner.setProperty(clientService, "export.max.connections", "2")
+        runner.setProperty(clientService, "export.allow.dirty.read", "true")
+        runner.enableControllerService(clientService)
+
+        runner.setProperty(QueryArangoDBRecord.CONNECTION_PROFILE, "export")
+        runner.enqueue("", [ "schema.name": "message"])
+        runner.run()
+        runner.assertTransferCount(QueryArangoDBRecord.REL_FAILURE, 0)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 1)
+
+        runner.setProperty(QueryArangoDBRecord.CONNECTION_PROFILE, "missing")
+        runner.enqueue("", [ "schema.name": "message"])
+        runner.run()
+        runner.assertTransferCount(QueryArangoDBRecord.REL_FAILURE, 1)
+    }
+
+    @Test
+    void testResumableCursor() {
+        insertMessages(8)
+        runner.setProperty(QueryArangoDBRecord.QUERY, "FOR message IN messages SORT TO_NUMBER(message._key) RETURN message")
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_STRATEGY, QueryArangoDBRecord.SCHEMA_INFER)
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_SAMPLE_SIZE, "1")
+        runner.setProperty(QueryArangoDBRecord.BATCH_SIZE, "1")
+        runner.setProperty(QueryArangoDBRecord.BATCHES_PER_TRIGGER, "2")
+        runner.disableControllerService(writer)
+        runner.setProperty(writer, SchemaAccessUtils.SCHEMA_ACCESS_STRATEGY, SchemaAccessUtils.INHERIT_RECORD_SCHEMA)
+        runner.enableControllerService(writer)
+        runner.setIncomingConnection(false)
+
+        runner.run(1, false)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 2)
+        runner.run(3, true, false)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_FAILURE, 0)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 8)
+        assert runner.processor.openStreams.isEmpty()
+
+        def flowFiles = runner.getFlowFilesForRelationship(QueryArangoDBRecord.REL_SUCCESS)
+        flowFiles.each { it.assertAttributeEquals("record.count", "1") }
+        def messages = flowFiles.collect { new JsonSlurper().parseText(new String(runner.getContentAsByteArray(it)))[0].message }
+        assert messages == [ "Hi!", "Bye!" ] + (3..8).collect { "Message ${it}".toString() }
+    }
+
+    @Test
+    void testParkedCursorIsKeptAlive() {
+        insertMessages(20)
+        runner.setProperty(QueryArangoDBRecord.QUERY, "FOR message IN messages SORT TO_NUMBER(message._key) RETURN message")
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_STRATEGY, QueryArangoDBRecord.SCHEMA_INFER)
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_SAMPLE_SIZE, "1")
+        runner.setProperty(QueryArangoDBRecord.BATCH_SIZE, "1")
+        runner.setProperty(QueryArangoDBRecord.BATCHES_PER_TRIGGER, "5")
+        runner.setProperty(QueryArangoDBRecord.CURSOR_TTL, "2 sec")
+        runner.disableControllerService(writer)
+        runner.setProperty(writer, SchemaAccessUtils.SCHEMA_ACCESS_STRATEGY, SchemaAccessUtils.INHERIT_RECORD_SCHEMA)
+        runner.enableControllerService(writer)
+        runner.setIncomingConnection(false)
+
+        runner.run(1, false)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 5)
+        Thread.sleep(5000)
+        def parked = runner.processor.openStreams.peek()
+        assert parked.readAhead > 0
+        assert parked.readAhead < 15
+
+        runner.run(3, true, false)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_FAILURE, 0)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 20)
+        assert runner.processor.openStreams.isEmpty()
+    }
+
+    @Test
+    void testResumedCursorFailure() {
+        insertMessages(8)
+        runner.setProperty(QueryArangoDBRecord.QUERY, "FOR message IN messages SORT TO_NUMBER(message._key) RETURN message")
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_STRATEGY, QueryArangoDBRecord.SCHEMA_INFER)
+        runner.setProperty(QueryArangoDBRecord.SCHEMA_SAMPLE_SIZE, "1")
+        runner.setProperty(QueryArangoDBRecord.BATCH_SIZE, "1")
+        runner.setProperty(QueryArangoDBRecord.BATCHES_PER_TRIGGER, "1")
+        runner.disableControllerService(writer)
+        runner.setProperty(writer, SchemaAccessUtils.SCHEMA_ACCESS_STRATEGY, SchemaAccessUtils.INHERIT_RECORD_SCHEMA)
+        runner.enableControllerService(writer)
+        runner.enqueue("", [ "export.id": "42" ])
+
+        runner.run(1, false)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 1)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_ORIGINAL, 1)
+        runner.getFlowFilesForRelationship(QueryArangoDBRecord.REL_SUCCESS)[0].assertAttributeEquals("export.id", "42")
+
+        runner.processor.openStreams.peek().cursor.close()
+        runner.run(1, true, false)
+
+        runner.assertTransferCount(QueryArangoDBRecord.REL_SUCCESS, 1)
+        runner.assertTransferCount(QueryArangoDBRecord.REL_FAILURE, 1)
+        def failure = runner.getFlowFilesForRelationship(QueryArangoDBRecord.REL_FAILURE)[0]
+        failure.assertAttributeEquals("export.id", "42")
+        failure.assertAttributeEquals(QueryArangoDBRecord.EMITTED_COUNT_ATTRIBUTE, "1")
+    }
+
+    void insertMessages(int total) {
+        def messages = arangoDB.db("nifi").collection("messages")
+        (3..total).each { key ->
+            messages.insertDocument(new BaseDocument().with { doc ->
+                doc.key = String.valueOf(key)
+                doc.properties = [ "from": "john.smith", "to": "jane.doe", "message": "Message ${key}".toString() ]
+            })
+        }
+    }
 }